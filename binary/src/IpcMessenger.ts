@@ -144,10 +144,11 @@ class IPCMessengerBase<
     messageId?: string,
   ): string {
     messageId = messageId ?? uuidv4();
+    // The IDE routes messages by messageId, it is read without parsing data when it comes first
     const msg: Message = {
       messageType: messageType as string,
-      data,
       messageId,
+      data,
     };
     this._sendMsg(msg);
     return messageId;
@@ -154,10 +154,11 @@ export class TcpMessenger<
     messageId?: string,
   ): string {
     messageId = messageId ?? uuidv4();
+    // The IDE routes messages by messageId, it is read without parsing data when it comes first
     const msg: Message = {
       messageType: messageType as string,
-      data,
       messageId,
+      data,
     };
 
     this.socket?.write(JSON.stringify(msg) + "\r\n");
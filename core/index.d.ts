@@ -758,7 +758,7 @@ export interface IDE {
 
   fileExists(fileUri: string): Promise<boolean>;
 
-  writeFile(path: string, contents: string): Promise<void>;
+  writeFile(path: string, contents: string, toolCallId?: string): Promise<void>;
 
   showVirtualFile(title: string, contents: string): Promise<void>;
 
@@ -905,6 +905,8 @@ export interface ModifiedFile {
   filepath: string;
   type: "create" | "edit";
   toolCallId?: string;
+  // Every tool call that touched the file, oldest first
+  toolCallIds?: string[];
 }
 
 export type ContextProviderName =
@@ -1317,6 +1319,9 @@ export interface ApplyState {
   filepath?: string;
   fileContent?: string;
   toolCallId?: string;
+  // Line ranges changed since the previous update, sent instead of the full file content
+  changedRanges?: { startLine: number; endLine: number }[];
+  contentHash?: string;
 }
 
 export interface StreamDiffLinesPayload {
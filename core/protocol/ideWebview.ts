@@ -51,6 +51,7 @@ export type ToIdeFromWebviewProtocol = ToIdeFromWebviewOrCoreProtocol & {
   showAgentDiff: [{ filepath: string; timestamp: number }, void];
   saveAllFiles: [{}, void];
   revertFile: [{ filepath: string; timestamp: number }, void];
+  revertToolCall: [{ toolCallId: string; filepath?: string }, string[]];
   "edit/sendPrompt": [
     {
       prompt: MessageContent;
@@ -149,8 +149,12 @@ export class MessageIde implements IDE {
     });
   }
 
-  async writeFile(fileUri: string, contents: string): Promise<void> {
-    await this.request("writeFile", { path: fileUri, contents });
+  async writeFile(
+    fileUri: string,
+    contents: string,
+    toolCallId?: string,
+  ): Promise<void> {
+    await this.request("writeFile", { path: fileUri, contents, toolCallId });
   }
 
   async showVirtualFile(title: string, contents: string): Promise<void> {
@@ -119,7 +119,7 @@ export class ReverseMessageIde {
     });
 
     this.on("writeFile", (data) => {
-      return this.ide.writeFile(data.path, data.contents);
+      return this.ide.writeFile(data.path, data.contents, data.toolCallId);
     });
 
     this.on("fileExists", (data) => {
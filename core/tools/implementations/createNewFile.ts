@@ -15,7 +15,11 @@ export const createNewFileImpl: ToolImpl = async (args, extras) => {
         `File ${args.filepath} already exists. Use the edit tool to edit this file`,
       );
     }
-    await extras.ide.writeFile(resolvedFileUri, args.contents);
+    await extras.ide.writeFile(
+      resolvedFileUri,
+      args.contents,
+      extras.toolCallId,
+    );
     await extras.ide.openFile(resolvedFileUri);
     return [
       {
@@ -0,0 +1,217 @@
+package com.github.continuedev.continueintellijextension.commit;
+
+import com.github.continuedev.continueintellijextension.commit.HunkSelector.FileChanges;
+import com.github.continuedev.continueintellijextension.commit.HunkSelector.Hunk;
+import com.github.continuedev.continueintellijextension.commit.HunkSelector.Kind;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.diff.impl.patch.FilePatch;
+import com.intellij.openapi.diff.impl.patch.IdeaTextPatchBuilder;
+import com.intellij.openapi.diff.impl.patch.PatchHunk;
+import com.intellij.openapi.diff.impl.patch.PatchLine;
+import com.intellij.openapi.diff.impl.patch.TextFilePatch;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vcs.FilePath;
+import com.intellij.openapi.vcs.VcsException;
+import com.intellij.openapi.vcs.changes.Change;
+import com.intellij.openapi.vcs.changes.ChangesUtil;
+import com.intellij.openapi.vcs.changes.ContentRevision;
+import com.github.continuedev.continueintellijextension.services.ContinueExecutors;
+import org.apache.commons.collections.CollectionUtils;
+import org.apache.commons.lang3.StringUtils;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects the diff of the changes included in a commit, off the EDT.
+ * <p>
+ * Patches are built in parallel per file and split into hunks, {@link HunkSelector} then keeps the most
+ * informative hunks within the {@link #MAX_PATCH_LEN} budget. Once several budgets worth of hunks have been
+ * collected the remaining files are not diffed at all and only show up in the diffstat, as do generated
+ * and minified files.
+ */
+public class CommitDiffBuilder {
+    private static final Logger log = Logger.getInstance(CommitDiffBuilder.class);
+    public static final long MAX_PATCH_LEN = 70000L;
+    public static final int MAX_FILE = 50;
+    private static final int MAX_SINGLE_LINE_LEN = 300;
+    // Enough candidates to rank, diffing more files wouldn't change the selection much
+    private static final long MAX_CANDIDATE_LEN = MAX_PATCH_LEN * 3;
+    private static final long POLL_INTERVAL_MS = 100L;
+
+    private static final List<String> GENERATED_FILE_SUFFIXES = List.of(
+            ".min.js", ".min.css", ".map", ".lock", "package-lock.json", "pnpm-lock.yaml", "go.sum"
+    );
+    private static final List<String> GENERATED_DIRECTORIES = List.of(
+            "/generated/", "/dist/", "/node_modules/"
+    );
+
+    public static class CommitDiff {
+        private final List<String> diffs;
+        private final int estimatedTokens;
+
+        CommitDiff(List<String> diffs) {
+            this.diffs = diffs;
+            this.estimatedTokens = diffs.stream().mapToInt(HunkSelector::estimateTokens).sum();
+        }
+
+        public List<String> getDiffs() {
+            return this.diffs;
+        }
+
+        public int getEstimatedTokens() {
+            return this.estimatedTokens;
+        }
+    }
+
+    private final Project project;
+
+    public CommitDiffBuilder(Project project) {
+        this.project = project;
+    }
+
+    public CommitDiff build(List<Change> changes, ProgressIndicator indicator) {
+        Executor executor = ContinueExecutors.getInstance().executor(ContinueExecutors.Pool.COMPUTE);
+        AtomicLong candidateLength = new AtomicLong(0L);
+        List<Future<FileChanges>> futures = new ArrayList<>();
+
+        try {
+            for (Change change : changes) {
+                FutureTask<FileChanges> task = new FutureTask<>(() -> this.buildFileChanges(change, candidateLength));
+                futures.add(task);
+                try {
+                    executor.execute(task);
+                } catch (RejectedExecutionException e) {
+                    // The shared pool is saturated, this runs in a background task so the file can be diffed here
+                    indicator.checkCanceled();
+                    task.run();
+                }
+            }
+
+            List<FileChanges> files = new ArrayList<>();
+            for (Future<FileChanges> future : futures) {
+                FileChanges fileChanges = this.await(future, indicator);
+                if (fileChanges != null) {
+                    files.add(fileChanges);
+                }
+            }
+
+            int budgetTokens = (int) (MAX_PATCH_LEN / HunkSelector.CHARS_PER_TOKEN);
+            return new CommitDiff(new HunkSelector(budgetTokens, MAX_FILE).select(files));
+        } finally {
+            futures.forEach(future -> future.cancel(false));
+        }
+    }
+
+    private FileChanges await(Future<FileChanges> future, ProgressIndicator indicator) {
+        while (true) {
+            indicator.checkCanceled();
+            try {
+                return future.get(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                // Poll again so that cancelling the task doesn't wait for a slow file
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ProcessCanceledException(e);
+            } catch (ExecutionException e) {
+                log.warn("build commit diff error", e.getCause());
+                return null;
+            }
+        }
+    }
+
+    private FileChanges buildFileChanges(Change change, AtomicLong candidateLength) throws VcsException {
+        ContentRevision contentRevision = change.getAfterRevision() != null ? change.getAfterRevision() : change.getBeforeRevision();
+        if (contentRevision == null || contentRevision.getFile().getFileType().isBinary()) {
+            return null;
+        }
+
+        FilePath filePath = ChangesUtil.getFilePath(change);
+        String path = this.getRelativePath(filePath);
+        Kind kind = change.getBeforeRevision() == null ? Kind.NEW : (change.getAfterRevision() == null ? Kind.DELETED : Kind.MODIFIED);
+        if (this.isGeneratedFile(path)) {
+            return new FileChanges(path, kind, List.of(), "generated file");
+        }
+        if (candidateLength.get() >= MAX_CANDIDATE_LEN) {
+            return new FileChanges(path, kind, List.of(), "not diffed");
+        }
+
+        String content = contentRevision.getContent();
+        if (StringUtils.isNotBlank(content) && !content.contains("\n") && !content.contains("\r") && content.length() > MAX_SINGLE_LINE_LEN) {
+            return new FileChanges(path, kind, List.of(), "minified file");
+        }
+
+        List<FilePatch> patches = IdeaTextPatchBuilder.buildPatch(project, List.of(change), Path.of(project.getBasePath()), false, false);
+        if (CollectionUtils.isEmpty(patches)) {
+            return new FileChanges(path, kind, List.of(), "mode change");
+        }
+
+        List<Hunk> hunks = new ArrayList<>();
+        for (FilePatch patch : patches) {
+            if (!(patch instanceof TextFilePatch)) {
+                return null;
+            }
+
+            for (PatchHunk patchHunk : ((TextFilePatch) patch).getHunks()) {
+                Hunk hunk = this.toHunk(patchHunk);
+                candidateLength.addAndGet(hunk.text.length());
+                hunks.add(hunk);
+            }
+        }
+
+        return hunks.isEmpty() ? null : new FileChanges(path, kind, hunks, null);
+    }
+
+    private Hunk toHunk(PatchHunk patchHunk) {
+        StringBuilder text = new StringBuilder()
+                .append("@@ -").append(patchHunk.getStartLineBefore() + 1).append(',').append(patchHunk.getEndLineBefore() - patchHunk.getStartLineBefore())
+                .append(" +").append(patchHunk.getStartLineAfter() + 1).append(',').append(patchHunk.getEndLineAfter() - patchHunk.getStartLineAfter())
+                .append(" @@\n");
+        List<String> addedLines = new ArrayList<>();
+        List<String> removedLines = new ArrayList<>();
+        int contextLines = 0;
+
+        for (PatchLine line : patchHunk.getLines()) {
+            switch (line.getType()) {
+                case ADD:
+                    text.append('+');
+                    addedLines.add(line.getText());
+                    break;
+                case REMOVE:
+                    text.append('-');
+                    removedLines.add(line.getText());
+                    break;
+                default:
+                    text.append(' ');
+                    contextLines++;
+            }
+            text.append(line.getText()).append('\n');
+        }
+
+        return new Hunk(text.toString(), addedLines, removedLines, contextLines);
+    }
+
+    private boolean isGeneratedFile(String path) {
+        String normalized = "/" + path.toLowerCase(Locale.ROOT);
+        return GENERATED_FILE_SUFFIXES.stream().anyMatch(normalized::endsWith)
+                || GENERATED_DIRECTORIES.stream().anyMatch(normalized::contains);
+    }
+
+    private String getRelativePath(FilePath filePath) {
+        String basePath = project.getBasePath();
+        String path = filePath.getPath();
+        return basePath != null && path.startsWith(basePath + "/") ? path.substring(basePath.length() + 1) : filePath.getName();
+    }
+}
@@ -0,0 +1,121 @@
+package com.github.continuedev.continueintellijextension.commit;
+
+import com.github.continuedev.continueintellijextension.services.ContinueExecutors;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vcs.VcsException;
+import com.intellij.openapi.vfs.VirtualFile;
+import git4idea.GitCommit;
+import git4idea.config.GitConfigUtil;
+import git4idea.history.GitHistoryUtils;
+import git4idea.repo.GitRepository;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Recent commit messages per repository, used as style examples for commit message generation.
+ * <p>
+ * Reading the history forks git, so it is read once per repository and kept until the repository's HEAD
+ * moves, which {@link GitRepository#GIT_REPO_CHANGE} reports. The current user's own commits come first,
+ * the most recent commits of everyone else fill up the rest.
+ */
+@Service(Service.Level.PROJECT)
+public final class CommitHistoryCache implements Disposable {
+    private static final Logger log = Logger.getInstance(CommitHistoryCache.class);
+    private static final int MAX_OWN_COMMITS = 6;
+    private static final int MAX_COMMITS = 10;
+    private static final int MAX_MESSAGE_LEN = 500;
+
+    private static class Entry {
+        final String head;
+        final CompletableFuture<List<String>> messages;
+
+        Entry(String head, CompletableFuture<List<String>> messages) {
+            this.head = head;
+            this.messages = messages;
+        }
+    }
+
+    private final Project project;
+    private final Map<VirtualFile, Entry> entries = new ConcurrentHashMap<>();
+    private final Executor executor = ContinueExecutors.getInstance().executor(ContinueExecutors.Pool.IO);
+
+    public CommitHistoryCache(Project project) {
+        this.project = project;
+        project.getMessageBus().connect(this).subscribe(GitRepository.GIT_REPO_CHANGE, this::onRepositoryChanged);
+    }
+
+    public static CommitHistoryCache getInstance(Project project) {
+        return project.getService(CommitHistoryCache.class);
+    }
+
+    /**
+     * Returns the cached messages of the repository, reading them in the background if needed
+     */
+    public CompletableFuture<List<String>> getCommitMessages(GitRepository repository) {
+        String head = repository.getCurrentRevision();
+        Entry entry = this.entries.compute(repository.getRoot(), (root, current) ->
+                current != null && Objects.equals(current.head, head) && !current.messages.isCompletedExceptionally()
+                        ? current
+                        : new Entry(head, CompletableFuture.supplyAsync(() -> this.readCommitMessages(root), this.executor)));
+        return entry.messages;
+    }
+
+    private void onRepositoryChanged(GitRepository repository) {
+        Entry entry = this.entries.get(repository.getRoot());
+        // Only refresh repositories that have been asked for, and only when there are new commits
+        if (entry != null && !Objects.equals(entry.head, repository.getCurrentRevision())) {
+            this.getCommitMessages(repository);
+        }
+    }
+
+    private List<String> readCommitMessages(VirtualFile root) {
+        Map<String, String> messages = new LinkedHashMap<>();
+        try {
+            String email = GitConfigUtil.getValue(this.project, root, GitConfigUtil.USER_EMAIL);
+            if (StringUtils.isNotBlank(email)) {
+                this.addMessages(messages, root, MAX_OWN_COMMITS, "--author=" + email);
+            }
+            this.addMessages(messages, root, MAX_COMMITS);
+        } catch (VcsException e) {
+            log.warn("read commit history error, errorMsg is " + e.getMessage());
+        }
+
+        return new ArrayList<>(messages.values());
+    }
+
+    private void addMessages(Map<String, String> messages, VirtualFile root, int limit, String... filters) throws VcsException {
+        String[] parameters = new String[filters.length + 2];
+        parameters[0] = "--max-count=" + limit;
+        parameters[1] = "--no-merges";
+        System.arraycopy(filters, 0, parameters, 2, filters.length);
+
+        List<GitCommit> commits = GitHistoryUtils.history(this.project, root, parameters);
+        for (GitCommit commit : commits) {
+            if (messages.size() >= MAX_COMMITS) {
+                return;
+            }
+            String message = StringUtils.abbreviate(commit.getFullMessage().trim(), MAX_MESSAGE_LEN);
+            if (!message.isEmpty()) {
+                messages.putIfAbsent(commit.getId().asString(), message);
+            }
+        }
+    }
+
+    @Override
+    public void dispose() {
+        // The pool is shared, only the reads of this project are cancelled
+        this.entries.values().forEach(entry -> entry.messages.cancel(true));
+        this.entries.clear();
+    }
+}
@@ -0,0 +1,53 @@
+package com.github.continuedev.continueintellijextension.commit;
+
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vcs.ui.CommitMessage;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Tracks the commit message generation running in a project, at most one at a time.
+ */
+@Service(Service.Level.PROJECT)
+public final class CommitMessageGenerationService {
+    private final Project project;
+    private final AtomicReference<CommitMessageRequest> current = new AtomicReference<>();
+
+    public CommitMessageGenerationService(Project project) {
+        this.project = project;
+    }
+
+    public static CommitMessageGenerationService getInstance(Project project) {
+        return project.getService(CommitMessageGenerationService.class);
+    }
+
+    /**
+     * Starts a new request, cancelling the one still running in this project
+     */
+    public CommitMessageRequest start(CommitMessage commitMessage, Runnable onFinished) {
+        CommitMessageRequest[] holder = new CommitMessageRequest[1];
+        holder[0] = new CommitMessageRequest(this.project, commitMessage, () -> {
+            this.current.compareAndSet(holder[0], null);
+            onFinished.run();
+        });
+
+        CommitMessageRequest previous = this.current.getAndSet(holder[0]);
+        if (previous != null) {
+            previous.cancel();
+        }
+        return holder[0];
+    }
+
+    public void stop() {
+        CommitMessageRequest request = this.current.getAndSet(null);
+        if (request != null) {
+            request.cancel();
+        }
+    }
+
+    public boolean isRunning() {
+        CommitMessageRequest request = this.current.get();
+        return request != null && !request.isFinished();
+    }
+}
@@ -0,0 +1,231 @@
+package com.github.continuedev.continueintellijextension.commit;
+
+import com.github.continuedev.continueintellijextension.services.ContinuePluginService;
+import com.github.continuedev.continueintellijextension.services.TelemetryService;
+import com.intellij.notification.Notification;
+import com.intellij.notification.NotificationGroupManager;
+import com.intellij.notification.NotificationType;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.openapi.util.IconLoader;
+import com.intellij.openapi.vcs.ui.CommitMessage;
+import com.intellij.util.concurrency.AppExecutorUtil;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.swing.*;
+
+/**
+ * One commit message generation, from collecting the diff to the last streamed token.
+ * <p>
+ * Tokens are buffered and written to the {@link CommitMessage} control at most once per EDT turn. The
+ * request is cancelled, including the core side stream, when the user stops it or the commit dialog is
+ * closed. Until the first token arrives it times out after the timeout given in {@link #onRequestSent};
+ * afterwards it only times out when the stream stalls for a few times the observed time-to-first-token.
+ */
+public class CommitMessageRequest implements Disposable {
+    private static final Logger log = Logger.getInstance(CommitMessageRequest.class);
+    private static final Icon LOGO_ICON = IconLoader.getIcon("/icons/continue_20.svg", CommitMessageRequest.class);
+    private static final long CHECK_INTERVAL_MS = 1000L;
+    private static final long STALL_FACTOR = 3L;
+    private static final long MIN_STALL_TIMEOUT_MS = 5000L;
+    private static final long MAX_STALL_TIMEOUT_MS = 30000L;
+
+    private final String requestId = UUID.randomUUID().toString();
+    private final Project project;
+    private final CommitMessage commitMessage;
+    private final Runnable onFinished;
+
+    private final StringBuilder pendingText = new StringBuilder();
+    private final AtomicBoolean isFlushScheduled = new AtomicBoolean(false);
+    private final AtomicBoolean isFinished = new AtomicBoolean(false);
+
+    private final long createdAt = System.currentTimeMillis();
+    private volatile long sentAt;
+    private volatile long firstTokenAt;
+    private volatile long lastTokenAt;
+    private volatile long firstTokenTimeoutMs;
+    private volatile int promptTokens;
+    private volatile int streamedChars;
+    private volatile boolean isStreaming;
+    private volatile ProgressIndicator indicator;
+    private volatile ScheduledFuture<?> timeoutCheck;
+
+    public CommitMessageRequest(Project project, CommitMessage commitMessage, Runnable onFinished) {
+        this.project = project;
+        this.commitMessage = commitMessage;
+        this.onFinished = onFinished;
+
+        // Closing the commit dialog disposes the control and cancels the request with it
+        if (commitMessage != null) {
+            Disposer.register(commitMessage, this);
+        }
+    }
+
+    public String getRequestId() {
+        return this.requestId;
+    }
+
+    public boolean isFinished() {
+        return this.isFinished.get();
+    }
+
+    public void attach(ProgressIndicator indicator) {
+        this.indicator = indicator;
+    }
+
+    public void onRequestSent(int promptTokens, long firstTokenTimeoutSeconds) {
+        this.promptTokens = promptTokens;
+        this.firstTokenTimeoutMs = TimeUnit.SECONDS.toMillis(firstTokenTimeoutSeconds);
+        this.sentAt = System.currentTimeMillis();
+        this.isStreaming = true;
+        this.timeoutCheck = AppExecutorUtil.getAppScheduledExecutorService()
+                .scheduleWithFixedDelay(this::checkTimeout, CHECK_INTERVAL_MS, CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public void onToken(String text) {
+        if (this.isFinished.get()) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        if (this.firstTokenAt == 0L) {
+            this.firstTokenAt = now;
+        }
+        this.lastTokenAt = now;
+
+        synchronized (this.pendingText) {
+            this.pendingText.append(text);
+            this.streamedChars += text.length();
+        }
+        if (this.isFlushScheduled.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(this::flush);
+        }
+    }
+
+    public void complete() {
+        SwingUtilities.invokeLater(() -> {
+            this.flush();
+            this.finish("success");
+        });
+    }
+
+    public void fail(String message) {
+        log.warn("generate commit message failed, errorMsg is " + message);
+        this.notify("生成提交信息时发生错误：" + message, NotificationType.ERROR);
+        this.finish("error");
+    }
+
+    public void cancel() {
+        if (this.isFinished.get()) {
+            return;
+        }
+
+        if (this.isStreaming) {
+            this.abortCoreRequest();
+        }
+        ProgressIndicator indicator = this.indicator;
+        if (indicator != null) {
+            indicator.cancel();
+        }
+        this.finish("cancelled");
+    }
+
+    @Override
+    public void dispose() {
+        this.cancel();
+    }
+
+    private void flush() {
+        this.isFlushScheduled.set(false);
+        String text;
+        synchronized (this.pendingText) {
+            text = this.pendingText.toString();
+            this.pendingText.setLength(0);
+        }
+
+        if (!text.isEmpty() && this.commitMessage != null && !this.isFinished.get()) {
+            this.commitMessage.setText(this.commitMessage.getText() + text);
+        }
+    }
+
+    private void checkTimeout() {
+        if (this.isFinished.get()) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        boolean timedOut;
+        if (this.firstTokenAt == 0L) {
+            timedOut = now - this.sentAt > this.firstTokenTimeoutMs;
+        } else {
+            long ttft = this.firstTokenAt - this.sentAt;
+            long stallTimeout = Math.max(MIN_STALL_TIMEOUT_MS, Math.min(MAX_STALL_TIMEOUT_MS, ttft * STALL_FACTOR));
+            timedOut = now - this.lastTokenAt > stallTimeout;
+        }
+
+        if (timedOut) {
+            this.abortCoreRequest();
+            this.notify("抱歉，请求超时，请重试。", NotificationType.INFORMATION);
+            this.finish("timeout");
+        }
+    }
+
+    private void finish(String outcome) {
+        if (!this.isFinished.compareAndSet(false, true)) {
+            return;
+        }
+
+        ScheduledFuture<?> timeoutCheck = this.timeoutCheck;
+        if (timeoutCheck != null) {
+            timeoutCheck.cancel(false);
+        }
+
+        this.reportLatency(outcome);
+        this.onFinished.run();
+        Disposer.dispose(this);
+    }
+
+    private void reportLatency(String outcome) {
+        long now = System.currentTimeMillis();
+        long diffMs = this.sentAt > 0L ? this.sentAt - this.createdAt : now - this.createdAt;
+        long ttftMs = this.firstTokenAt > 0L ? this.firstTokenAt - this.sentAt : -1L;
+        long streamMs = this.firstTokenAt > 0L ? now - this.firstTokenAt : -1L;
+        log.info("commit message " + outcome + ": diff " + diffMs + "ms, first token " + ttftMs + "ms, stream " + streamMs
+                + "ms, prompt ~" + this.promptTokens + " tokens, " + this.streamedChars + " chars");
+
+        ApplicationManager.getApplication().getService(TelemetryService.class).capture("jetbrains_commit_message", Map.of(
+                "outcome", outcome,
+                "diffMs", diffMs,
+                "timeToFirstTokenMs", ttftMs,
+                "streamMs", streamMs,
+                "promptTokens", this.promptTokens,
+                "chars", this.streamedChars
+        ));
+    }
+
+    private void abortCoreRequest() {
+        try {
+            ContinuePluginService continuePluginService = this.project.getService(ContinuePluginService.class);
+            if (continuePluginService != null && continuePluginService.getCoreMessenger() != null) {
+                // The core aborts the stream registered under the message id passed as data
+                continuePluginService.getCoreMessenger().request("abort", this.requestId, null, (response) -> null);
+            }
+        } catch (Exception e) {
+            log.warn("Error aborting Continue request: " + e.getMessage());
+        }
+    }
+
+    private void notify(String content, NotificationType type) {
+        Notification notification = NotificationGroupManager.getInstance().getNotificationGroup("Continue").createNotification(content, type);
+        notification.setIcon(LOGO_ICON);
+        notification.notify(this.project);
+    }
+}
@@ -0,0 +1,248 @@
+package com.github.continuedev.continueintellijextension.commit;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Picks the hunks of a commit that fit into the token budget of the commit message prompt.
+ * <p>
+ * Hunks are ranked by how much they tell about the commit: new and deleted files and changed
+ * declarations first, whitespace only edits last. The best ranked hunks are kept in file order and
+ * everything that was left out is listed in a diffstat so the model still sees every touched file. A hunk
+ * larger than its share of the budget, such as a large new file, is cut to its leading lines.
+ */
+public class HunkSelector {
+    public static final int CHARS_PER_TOKEN = 4;
+    // A single hunk may take at most this share of the budget
+    private static final int MAX_HUNK_SHARE = 4;
+    // Room left for the line that replaces the end of a truncated hunk
+    private static final int ELISION_MARKER_LEN = 32;
+
+    private static final Pattern SIGNATURE = Pattern.compile(
+            "^\\s*(?:@\\w+|(?:public|private|protected|internal|static|abstract|final|override|open|export|async|suspend)\\s|"
+                    + "(?:def|fun|func|fn|function|class|interface|enum|record|struct|trait|object|type)\\s)"
+                    + "|^\\s*[\\w<>\\[\\],.?]+\\s+\\w+\\s*\\([^;]*$"
+    );
+
+    public enum Kind {
+        NEW("new file"),
+        DELETED("deleted"),
+        MODIFIED("modified");
+
+        private final String label;
+
+        Kind(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return this.label;
+        }
+    }
+
+    public static class Hunk {
+        final String text;
+        final int added;
+        final int removed;
+        final boolean signatureChange;
+        final boolean whitespaceOnly;
+        final double density;
+
+        public Hunk(String text, List<String> addedLines, List<String> removedLines, int contextLines) {
+            this.text = text;
+            this.added = addedLines.size();
+            this.removed = removedLines.size();
+            this.signatureChange = addedLines.stream().anyMatch(HunkSelector::isSignature)
+                    || removedLines.stream().anyMatch(HunkSelector::isSignature);
+            this.whitespaceOnly = strip(addedLines).equals(strip(removedLines));
+
+            long meaningfulLines = addedLines.stream().filter(line -> !line.isBlank()).count()
+                    + removedLines.stream().filter(line -> !line.isBlank()).count();
+            this.density = (double) meaningfulLines / Math.max(1, this.added + this.removed + contextLines);
+        }
+    }
+
+    public static class FileChanges {
+        final String path;
+        final Kind kind;
+        final List<Hunk> hunks;
+        // Used instead of hunks for generated, minified or undiffed files
+        final String reason;
+
+        public FileChanges(String path, Kind kind, List<Hunk> hunks, String reason) {
+            this.path = path;
+            this.kind = kind;
+            this.hunks = hunks;
+            this.reason = reason;
+        }
+
+        String getHeader() {
+            String before = this.kind == Kind.NEW ? "/dev/null" : "a/" + this.path;
+            String after = this.kind == Kind.DELETED ? "/dev/null" : "b/" + this.path;
+            return "--- " + before + "\n+++ " + after + "\n";
+        }
+    }
+
+    private final int budgetTokens;
+    private final int maxFiles;
+
+    public HunkSelector(int budgetTokens, int maxFiles) {
+        this.budgetTokens = budgetTokens;
+        this.maxFiles = maxFiles;
+    }
+
+    /**
+     * Returns one diff per file with its selected hunks, followed by the diffstat of what was omitted
+     */
+    public List<String> select(List<FileChanges> files) {
+        List<HunkRef> candidates = new ArrayList<>();
+        for (FileChanges file : files) {
+            for (Hunk hunk : file.hunks) {
+                candidates.add(new HunkRef(file, hunk));
+            }
+        }
+        // Stable sort, equally ranked hunks keep change list order
+        candidates.sort(Comparator.comparingDouble((HunkRef ref) -> score(ref.file, ref.hunk)).reversed());
+
+        // Selected hunks with the text to send, which is cut for hunks over their share of the budget
+        Map<Hunk, String> selected = new HashMap<>();
+        Set<FileChanges> selectedFiles = new HashSet<>();
+        int maxHunkChars = this.budgetTokens / MAX_HUNK_SHARE * CHARS_PER_TOKEN;
+        int usedTokens = 0;
+        for (HunkRef ref : candidates) {
+            String text = truncate(ref.hunk.text, maxHunkChars);
+            int tokens = estimateTokens(text);
+
+            if (!selectedFiles.contains(ref.file)) {
+                if (selectedFiles.size() >= this.maxFiles) {
+                    continue;
+                }
+                tokens += estimateTokens(ref.file.getHeader());
+            }
+
+            if (usedTokens + tokens > this.budgetTokens) {
+                continue;
+            }
+
+            selected.put(ref.hunk, text);
+            selectedFiles.add(ref.file);
+            usedTokens += tokens;
+        }
+
+        List<String> diffs = new ArrayList<>();
+        StringBuilder diffstat = new StringBuilder();
+        for (FileChanges file : files) {
+            StringBuilder diff = new StringBuilder();
+            int omittedHunks = 0;
+            int omittedAdded = 0;
+            int omittedRemoved = 0;
+            int truncatedHunks = 0;
+            for (Hunk hunk : file.hunks) {
+                String text = selected.get(hunk);
+                if (text != null) {
+                    diff.append(text);
+                    if (text.length() < hunk.text.length()) {
+                        truncatedHunks++;
+                    }
+                } else {
+                    omittedHunks++;
+                    omittedAdded += hunk.added;
+                    omittedRemoved += hunk.removed;
+                }
+            }
+
+            if (diff.length() > 0) {
+                diffs.add(file.getHeader() + diff);
+            }
+
+            if (file.reason != null) {
+                diffstat.append(file.path).append(" | ").append(file.kind.getLabel()).append(" (").append(file.reason).append(")\n");
+            } else if (omittedHunks > 0) {
+                String scope = omittedHunks == file.hunks.size() ? "" : ", " + omittedHunks + " of " + file.hunks.size() + " hunks";
+                diffstat.append(file.path).append(" | ").append(file.kind.getLabel())
+                        .append(" +").append(omittedAdded).append(" -").append(omittedRemoved).append(scope).append("\n");
+            }
+            if (truncatedHunks > 0) {
+                diffstat.append(file.path).append(" | ").append(file.kind.getLabel())
+                        .append(" (").append(truncatedHunks).append(" of ").append(file.hunks.size()).append(" hunks truncated)\n");
+            }
+        }
+
+        if (diffstat.length() > 0) {
+            diffs.add("Changes omitted from the diff above:\n" + diffstat);
+        }
+        return diffs;
+    }
+
+    static double score(FileChanges file, Hunk hunk) {
+        double score = hunk.density;
+        if (file.kind != Kind.MODIFIED) {
+            score += 2;
+        }
+        if (hunk.signatureChange) {
+            score += 1.5;
+        }
+        if (hunk.whitespaceOnly) {
+            score -= 2;
+        }
+        return score;
+    }
+
+    /**
+     * Cuts {@code text} after the last whole line that fits into {@code maxChars} and notes how many lines were left out
+     */
+    static String truncate(String text, int maxChars) {
+        if (text.length() <= maxChars) {
+            return text;
+        }
+
+        int end = text.lastIndexOf('\n', Math.max(0, maxChars - ELISION_MARKER_LEN - 1));
+        if (end < 0) {
+            // Always keep the @@ header line
+            end = text.indexOf('\n');
+        }
+        int omittedLines = 0;
+        for (int i = end + 1; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') {
+                omittedLines++;
+            }
+        }
+        return text.substring(0, end + 1) + "... " + omittedLines + " more lines\n";
+    }
+
+    public static int estimateTokens(String text) {
+        return (text.length() + CHARS_PER_TOKEN - 1) / CHARS_PER_TOKEN;
+    }
+
+    private static boolean isSignature(String line) {
+        return SIGNATURE.matcher(line).find();
+    }
+
+    private static String strip(List<String> lines) {
+        StringBuilder builder = new StringBuilder();
+        for (String line : lines) {
+            for (int i = 0; i < line.length(); i++) {
+                if (!Character.isWhitespace(line.charAt(i))) {
+                    builder.append(line.charAt(i));
+                }
+            }
+        }
+        return builder.toString();
+    }
+
+    private static class HunkRef {
+        final FileChanges file;
+        final Hunk hunk;
+
+        HunkRef(FileChanges file, Hunk hunk) {
+            this.file = file;
+            this.hunk = hunk;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.github.continuedev.continueintellijextension.filter;
+
+import com.github.continuedev.continueintellijextension.RangeInFileWithContents;
+import com.github.continuedev.continueintellijextension.utils.PsiUtils;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.project.Project;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Collects the project code an exception went through, for the exception analysis prompt.
+ * <p>
+ * Every frame of the stack trace and of its {@code Caused by} chain is resolved to its enclosing method.
+ * The root cause is ranked first, and within a cause the frames closest to the throw site. Frames hitting a
+ * method that is already included are skipped, and snippets are added in rank order until
+ * {@link #MAX_CONTEXT_TOKENS} is used up. Has to run in a read action, ideally a non-blocking one.
+ */
+public class ExceptionContextBuilder {
+    private static final int CHARS_PER_TOKEN = 4;
+    private static final int MAX_CONTEXT_TOKENS = 6000;
+    private static final int MAX_SNIPPETS = 6;
+    // Frames of a deep stack rarely add anything, and each one costs an index lookup
+    private static final int MAX_FRAMES = 60;
+
+    private ExceptionContextBuilder() {
+    }
+
+    public static List<RangeInFileWithContents> build(Project project, String stacktrace) {
+        List<List<String>> causes = splitCauses(stacktrace);
+
+        List<RangeInFileWithContents> snippets = new ArrayList<>();
+        Set<String> seenMethods = new HashSet<>();
+        int remainingChars = MAX_CONTEXT_TOKENS * CHARS_PER_TOKEN;
+        int resolvedFrames = 0;
+
+        // The root cause is the last one in the trace
+        for (int i = causes.size() - 1; i >= 0; --i) {
+            for (String frame : causes.get(i)) {
+                if (snippets.size() >= MAX_SNIPPETS || resolvedFrames >= MAX_FRAMES || remainingChars <= 0) {
+                    return snippets;
+                }
+                ProgressManager.checkCanceled();
+
+                resolvedFrames++;
+                RangeInFileWithContents snippet = PsiUtils.resolveStackFrame(project, frame);
+                if (snippet == null || !seenMethods.add(snippet.getFilepath() + ":" + snippet.getRange().getStart().getLine())) {
+                    continue;
+                }
+
+                int length = snippet.getContents().length();
+                // The best ranked snippet is always included, later ones only if they fit
+                if (snippets.isEmpty() || length <= remainingChars) {
+                    snippets.add(snippet);
+                    remainingChars -= length;
+                }
+            }
+        }
+
+        return snippets;
+    }
+
+    /**
+     * Splits the trace into the frames of the exception and of each {@code Caused by}
+     */
+    static List<List<String>> splitCauses(String stacktrace) {
+        List<List<String>> causes = new ArrayList<>();
+        List<String> frames = new ArrayList<>();
+        causes.add(frames);
+
+        for (String line : stacktrace.split("\n")) {
+            String trimmed = line.trim();
+            if (trimmed.startsWith("Caused by")) {
+                frames = new ArrayList<>();
+                causes.add(frames);
+            } else if (trimmed.startsWith("at ")) {
+                frames.add(trimmed);
+            }
+        }
+
+        return causes;
+    }
+}
@@ -4,14 +4,25 @@ import com.intellij.execution.filters.Filter;
 import com.intellij.execution.filters.HyperlinkInfo;
 import com.intellij.execution.filters.JvmExceptionOccurrenceFilter;
 import com.intellij.execution.impl.InlayProvider;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.editor.Document;
 import com.intellij.openapi.editor.Editor;
 import com.intellij.openapi.editor.EditorCustomElementRenderer;
+import com.intellij.openapi.editor.Inlay;
+import com.intellij.openapi.editor.event.DocumentEvent;
+import com.intellij.openapi.editor.event.DocumentListener;
+import com.intellij.openapi.editor.ex.util.EditorUtil;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.util.TextRange;
 import com.intellij.psi.PsiClass;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * @ClassName TaAiDebuggerFilter
@@ -50,7 +61,132 @@ public class TaAiDebuggerFilter implements JvmExceptionOccurrenceFilter {
         }
 
         public EditorCustomElementRenderer createInlayRenderer(Editor editor) {
-            return new TaAiPresentation(editor, this.project, this.startOffset);
+            return ConsoleInlayState.get(editor, this.project).renderer;
+        }
+
+        @Override
+        public Inlay<?> createInlay(@NotNull Editor editor, int offset) {
+            ConsoleInlayState state = ConsoleInlayState.get(editor, this.project);
+            String traceKey = state.tryAcquire(editor, this.startOffset);
+            if (traceKey == null) {
+                return null;
+            }
+
+            Inlay<?> inlay = editor.getInlayModel().addInlineElement(offset, state.renderer);
+            if (inlay != null) {
+                inlay.putUserData(TaAiPresentation.EXCEPTION_START_DELTA, this.startOffset - offset);
+                state.remember(traceKey, inlay);
+            }
+            return inlay;
+        }
+    }
+
+    /**
+     * 每个控制台的按钮状态：共用的渲染器、每个异常堆栈对应的按钮和按钮数量。
+     * 大量重复异常时只为第一次出现的堆栈添加按钮，且按钮总数有上限，避免拖慢控制台输出。
+     * 按钮随输出被裁剪后，同样的堆栈再次出现时会重新添加按钮。
+     */
+    private static class ConsoleInlayState {
+        private static final Key<ConsoleInlayState> KEY = Key.create("continue.consoleInlayState");
+        private static final int MAX_INLAYS = 100;
+        private static final int MAX_SEEN_EXCEPTIONS = 1000;
+        private static final int MAX_HEADER_LEN = 500;
+        // 参与去重的堆栈帧数，足以区分消息相同但出错位置不同的异常
+        private static final int MAX_KEY_FRAMES = 3;
+
+        final TaAiPresentation renderer;
+        private final Map<String, Inlay<?>> inlaysByTrace = new LinkedHashMap<>(16, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Inlay<?>> eldest) {
+                return this.size() > MAX_SEEN_EXCEPTIONS;
+            }
+        };
+
+        private ConsoleInlayState(TaAiPresentation renderer) {
+            this.renderer = renderer;
+        }
+
+        static ConsoleInlayState get(Editor editor, Project project) {
+            ConsoleInlayState state = editor.getUserData(KEY);
+            if (state == null) {
+                ConsoleInlayState newState = new ConsoleInlayState(new TaAiPresentation(editor, project));
+                // 控制台被清空时丢弃全部去重记录；循环缓冲区裁剪旧输出时只有被裁掉的按钮失效，由 tryAcquire 按需释放
+                Disposable listenerDisposable = Disposer.newDisposable();
+                EditorUtil.disposeWithEditor(editor, listenerDisposable);
+                editor.getDocument().addDocumentListener(new DocumentListener() {
+                    @Override
+                    public void documentChanged(@NotNull DocumentEvent event) {
+                        if (event.getDocument().getTextLength() == 0) {
+                            newState.inlaysByTrace.clear();
+                        }
+                    }
+                }, listenerDisposable);
+                editor.putUserData(KEY, newState);
+                state = newState;
+            }
+            return state;
+        }
+
+        /**
+         * 判断是否为该位置的异常添加按钮，在 EDT 中调用。需要添加时返回该堆栈的去重键，否则返回 null
+         */
+        @Nullable
+        String tryAcquire(Editor editor, int exceptionStartOffset) {
+            Document document = editor.getDocument();
+            int textLength = document.getTextLength();
+            if (exceptionStartOffset >= textLength || this.countLiveInlays(editor, textLength) >= MAX_INLAYS) {
+                return null;
+            }
+
+            String traceKey = getTraceKey(document, exceptionStartOffset);
+            Inlay<?> existing = this.inlaysByTrace.get(traceKey);
+            if (existing != null && existing.isValid()) {
+                return null;
+            }
+            // 之前的按钮已随输出被裁剪，不再占用该堆栈
+            this.inlaysByTrace.remove(traceKey);
+            return traceKey;
+        }
+
+        void remember(String traceKey, Inlay<?> inlay) {
+            this.inlaysByTrace.put(traceKey, inlay);
+        }
+
+        /**
+         * 以异常类名、消息和最前面几个堆栈帧判断是否重复，行首的时间戳等日志前缀不参与比较。
+         * 只取已输出到控制台的堆栈帧
+         */
+        private static String getTraceKey(Document document, int exceptionStartOffset) {
+            int line = document.getLineNumber(exceptionStartOffset);
+            int lineEndOffset = document.getLineEndOffset(line);
+            StringBuilder key = new StringBuilder(document.getText(
+                    new TextRange(exceptionStartOffset, Math.min(lineEndOffset, exceptionStartOffset + MAX_HEADER_LEN))));
+
+            int frames = 0;
+            for (int i = line + 1; i < document.getLineCount() && frames < MAX_KEY_FRAMES; i++) {
+                int start = document.getLineStartOffset(i);
+                int end = Math.min(document.getLineEndOffset(i), start + MAX_HEADER_LEN);
+                String frame = document.getText(new TextRange(start, end)).trim();
+                if (!frame.startsWith("at ")) {
+                    break;
+                }
+                key.append('\n').append(frame);
+                frames++;
+            }
+            return key.toString();
+        }
+
+        /**
+         * 按钮随被裁剪的输出一起消失，所以上限按控制台中仍存在的按钮计算
+         */
+        private int countLiveInlays(Editor editor, int textLength) {
+            int count = 0;
+            for (Inlay<?> inlay : editor.getInlayModel().getInlineElementsInRange(0, textLength)) {
+                if (inlay.getRenderer() == this.renderer) {
+                    count++;
+                }
+            }
+            return count;
         }
     }
 }
@@ -9,38 +9,46 @@ import com.github.continuedev.continueintellijextension.HighlightedCodePayload;
 import com.github.continuedev.continueintellijextension.RangeInFileWithContents;
 import com.github.continuedev.continueintellijextension.actions.UtilsKt;
 import com.github.continuedev.continueintellijextension.services.ContinuePluginService;
-import com.github.continuedev.continueintellijextension.utils.PsiUtils;
 import static com.github.continuedev.continueintellijextension.utils.StatKt.incrementFeatureCount;
 import com.intellij.codeInsight.hints.presentation.InputHandler;
+import com.intellij.openapi.application.ModalityState;
+import com.intellij.openapi.application.ReadAction;
 import com.intellij.openapi.editor.Document;
 import com.intellij.openapi.editor.Editor;
 import com.intellij.openapi.editor.EditorCustomElementRenderer;
 import com.intellij.openapi.editor.Inlay;
-import com.intellij.openapi.editor.colors.EditorColors;
-import com.intellij.openapi.editor.colors.EditorColorsManager;
 import com.intellij.openapi.editor.impl.EditorImpl;
 import com.intellij.openapi.editor.markup.TextAttributes;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.IconLoader;
+import com.intellij.openapi.util.Key;
 import com.intellij.openapi.util.TextRange;
+import com.intellij.util.concurrency.AppExecutorUtil;
 import org.jetbrains.annotations.NotNull;
 
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.MouseEvent;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.UUID;
 
+/**
+ * 异常分析按钮的渲染器，同一个控制台中的所有按钮共用一个实例。
+ * 点击时根据鼠标位置找到对应的 inlay，再读取其所在的异常堆栈。
+ */
 public class TaAiPresentation implements EditorCustomElementRenderer, InputHandler {
+    // 异常类名起始位置相对于 inlay 位置的偏移，控制台裁剪旧内容时两者一起移动
+    static final Key<Integer> EXCEPTION_START_DELTA = Key.create("continue.exceptionStartDelta");
+
     private final Editor editor;
     private final Project myProject;
-    private final int startOffset;
     private static final Icon EX_ICON = IconLoader.getIcon("/icons/ta3logo_ex.svg", TaAiPresentation.class);
 
-    public TaAiPresentation(Editor editor, Project project, int starOffset) {
+    public TaAiPresentation(Editor editor, Project project) {
         this.editor = editor;
         this.myProject = project;
-        this.startOffset = starOffset;
     }
 
     private String getErrorStacktrace(Document document, int startOffset, int line) {
@@ -63,14 +71,18 @@ public class TaAiPresentation implements EditorCustomElementRenderer, InputHandl
     }
 
     public void mouseClicked(@NotNull MouseEvent mouseEvent, @NotNull Point point) {
+        Inlay<?> inlay = this.editor.getInlayModel().getElementAt(mouseEvent.getPoint());
+        if (inlay == null || inlay.getRenderer() != this) {
+            return;
+        }
         incrementFeatureCount(this.myProject, "exceptionAnalysis");
 
-        int line = this.editor.getDocument().getLineNumber(this.startOffset);
+        Integer startDelta = inlay.getUserData(EXCEPTION_START_DELTA);
+        int startOffset = Math.max(inlay.getOffset() + (startDelta != null ? startDelta : 0), 0);
+        int line = this.editor.getDocument().getLineNumber(startOffset);
 
-        // 获取错误行内容
-        RangeInFileWithContents errorLineContentAsRange = PsiUtils.findErrorLineContentAsRange(this.myProject, this.editor, line);
         // 获取错误堆栈信息
-        String errorInformation = this.getErrorStacktrace(this.editor.getDocument(), this.startOffset, line);
+        String errorInformation = this.getErrorStacktrace(this.editor.getDocument(), startOffset, line);
         String errorPrompt = String.format("修复报错:\n%s\n\n", errorInformation);
 
         ContinuePluginService continuePluginService = UtilsKt.getContinuePluginService(this.myProject);
@@ -78,12 +90,29 @@ public class TaAiPresentation implements EditorCustomElementRenderer, InputHandl
         Objects.requireNonNull(Objects.requireNonNull(continuePluginService).getContinuePluginWindow()).getContent().getComponents()[0].requestFocus();
         continuePluginService.sendToWebview("focusContinueInputWithoutClear", null, UUID.randomUUID().toString());
 
-        continuePluginService.sendToWebview(
-                "highlightedCode",
-                new HighlightedCodePayload(Objects.requireNonNull(errorLineContentAsRange), errorPrompt, true),
-                UUID.randomUUID().toString()
-        );
+        // 在后台解析堆栈涉及的代码，控制台持续输出日志时也不阻塞界面
+        ReadAction.nonBlocking(() -> ExceptionContextBuilder.build(this.myProject, errorInformation))
+                .inSmartMode(this.myProject)
+                .expireWith(continuePluginService)
+                .finishOnUiThread(ModalityState.defaultModalityState(), snippets -> this.sendToChat(continuePluginService, snippets, errorPrompt))
+                .submit(AppExecutorUtil.getAppExecutorService());
+    }
+
+    private void sendToChat(ContinuePluginService continuePluginService, List<RangeInFileWithContents> snippets, String errorPrompt) {
+        if (snippets.isEmpty()) {
+            continuePluginService.sendToWebview("userInput", Map.of("input", errorPrompt), UUID.randomUUID().toString());
+            return;
+        }
 
+        // 每个片段作为一个代码块加入输入框，最后一个附带提示词并发送
+        for (int i = 0; i < snippets.size(); ++i) {
+            boolean isLast = i == snippets.size() - 1;
+            continuePluginService.sendToWebview(
+                    "highlightedCode",
+                    new HighlightedCodePayload(snippets.get(i), isLast ? errorPrompt : null, isLast),
+                    UUID.randomUUID().toString()
+            );
+        }
     }
 
     public void mouseExited() {
@@ -111,7 +140,6 @@ public class TaAiPresentation implements EditorCustomElementRenderer, InputHandl
             return;
         }
 
-        Color color = EditorColorsManager.getInstance().getGlobalScheme().getColor(EditorColors.READONLY_FRAGMENT_BACKGROUND_COLOR);
         Icon consoleIcon = EX_ICON;
         int curX = r.x + r.width / 2 - consoleIcon.getIconWidth() / 2;
         int curY = r.y + r.height / 2 - consoleIcon.getIconHeight() / 2;
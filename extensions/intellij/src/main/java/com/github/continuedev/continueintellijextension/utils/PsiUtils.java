@@ -4,26 +4,31 @@ import com.github.continuedev.continueintellijextension.Position;
 import com.github.continuedev.continueintellijextension.Range;
 import com.github.continuedev.continueintellijextension.RangeInFileWithContents;
 import com.intellij.execution.filters.ExceptionWorker;
-import com.intellij.lang.Language;
-import com.intellij.lang.LanguageUtil;
+import com.intellij.openapi.application.ReadAction;
 import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.editor.Document;
 import com.intellij.openapi.editor.Editor;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.TextRange;
 import com.intellij.openapi.vfs.VirtualFile;
-import com.intellij.psi.TokenType;
+import com.intellij.psi.JavaPsiFacade;
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiClassInitializer;
+import com.intellij.psi.PsiDocumentManager;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiManager;
+import com.intellij.psi.PsiMember;
+import com.intellij.psi.PsiMethod;
 import com.intellij.psi.search.FilenameIndex;
 import com.intellij.psi.search.GlobalSearchScope;
-import com.intellij.psi.tree.IElementType;
-import com.intellij.psi.tree.TokenSet;
+import com.intellij.psi.util.CachedValueProvider;
+import com.intellij.psi.util.CachedValuesManager;
+import com.intellij.psi.util.PsiTreeUtil;
 import org.apache.commons.collections.CollectionUtils;
-import org.apache.commons.lang3.StringUtils;
-import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 
@@ -31,9 +36,8 @@ public class PsiUtils {
     private static final Logger log = Logger.getInstance(PsiUtils.class);
     public static final String IDENTIFIER = "IDENTIFIER";
     public static final String DEFAULT_CLASS_NAME = "DemoClass";
-    private static final List<String> commentFlags = Arrays.asList("/", "#", "\"\"\"", "'''", "/*", "*");
-    private static final TokenSet INVALID_COMMON_TOKENSET;
-    private static final String[] FILE_TYPE_CLASSES;
+    private static final int MAX_BLOCK_LINES = 200;
+    private static final int MAX_FALLBACK_LINES = 10;
 
     public PsiUtils() {
     }
@@ -51,104 +55,150 @@ public class PsiUtils {
      */
     @Nullable
     public static RangeInFileWithContents findErrorLineContentAsRange(Project project, Editor editor, int line) {
-        while(line < editor.getDocument().getLineCount()) {
-            String lineContent = editor.getDocument().getText(new TextRange(editor.getDocument().getLineStartOffset(line), editor.getDocument().getLineEndOffset(line)));
-            ExceptionWorker.ParsedLine myInfo = ExceptionWorker.parseExceptionLine(lineContent);
-            if (myInfo != null && myInfo.fileName != null) {
-                String fileName = myInfo.fileName;
-                int documentLine = myInfo.lineNumber;
-                String classFullPath = lineContent.substring(myInfo.classFqnRange.getStartOffset(), myInfo.classFqnRange.getEndOffset());
-                List<VirtualFile> vFiles = new ArrayList(FilenameIndex.getVirtualFilesByName(project, fileName, GlobalSearchScope.projectScope(project)));
-                if (CollectionUtils.isEmpty(vFiles)) {
-                    ++line;
-                } else {
-                    VirtualFile vFile = findMostRelatedVirtualFile(vFiles, classFullPath);
-                    log.info("Find stacktrace related vfs " + vFile.getName());
+        Document document = editor.getDocument();
+        while(line < document.getLineCount()) {
+            String lineContent = document.getText(new TextRange(document.getLineStartOffset(line), document.getLineEndOffset(line)));
+            RangeInFileWithContents frameContent = resolveStackFrame(project, lineContent);
+            if (frameContent != null) {
+                return frameContent;
+            }
 
-                    try {
-                        String content = new String(vFile.contentsToByteArray(true));
-                        Language language = LanguageUtil.getFileLanguage(vFile);
-                        String languageStr = null;
-                        if (language != null) {
-                            languageStr = language.getDisplayName().toLowerCase();
-                        }
+            ++line;
+        }
 
-                        // 获取完整的代码块内容
-                        String codeBlockContent = getStringBuilder(content, documentLine, languageStr).toString();
+        return null;
+    }
 
-                        // 计算代码块的范围
-                        String[] contentLines = content.split("\n");
-                        int[] blockRange = findCodeBlockRange(contentLines, documentLine, "{", "}", 10);
-                        int startLine = blockRange[0];
-                        int endLine = blockRange[1];
+    public static String findErrorLineContentByDefault(Project project, Editor editor, int line) {
+        RangeInFileWithContents frameContent = findErrorLineContentAsRange(project, editor, line);
+        return frameContent != null ? frameContent.getContents() : null;
+    }
 
-                        // 构造 Range 对象
-                        Range range = new Range(
-                            new Position(startLine, 0),
-                            new Position(endLine, contentLines[Math.min(endLine, contentLines.length - 1)].length())
-                        );
+    /**
+     * 将堆栈帧解析为其所在方法的代码
+     * <p>
+     * 通过类的全限定名用 {@link JavaPsiFacade} 找到源文件，再取包含出错行的方法、构造器或初始化块。
+     * 内容从文件的 Document 中读取，不复制整个文件；方法范围按文件缓存，文件修改后失效。
+     * @param project 当前项目
+     * @param lineContent 堆栈中的一行，如 "at com.example.Foo.bar(Foo.java:42)"
+     * @return 出错方法所在的文件、范围和内容，无法解析到项目中的源码时返回 null
+     */
+    @Nullable
+    public static RangeInFileWithContents resolveStackFrame(Project project, String lineContent) {
+        ExceptionWorker.ParsedLine parsedLine = ExceptionWorker.parseExceptionLine(lineContent);
+        if (parsedLine == null || parsedLine.fileName == null || parsedLine.lineNumber <= 0) {
+            return null;
+        }
 
-                        // 构造并返回 RangeInFileWithContents 对象
-                        return new RangeInFileWithContents(
-                            vFile.getUrl(),
-                            range,
-                            codeBlockContent
-                        );
-                    } catch (IOException e) {
-                        log.error("vFile parse exception. ", e);
-                        ++line;
-                    }
-                }
-            } else {
-                ++line;
+        String classFqn = parsedLine.classFqnRange.subSequence(lineContent).toString();
+        return ReadAction.compute(() -> {
+            if (project.isDisposed()) {
+                return null;
             }
-        }
 
-        return null;
+            PsiFile psiFile = findSourceFile(project, classFqn, parsedLine.fileName);
+            Document document = psiFile != null ? PsiDocumentManager.getInstance(project).getDocument(psiFile) : null;
+            if (document == null || psiFile.getVirtualFile() == null) {
+                return null;
+            }
+
+            // 堆栈中的行号从 1 开始
+            int documentLine = parsedLine.lineNumber - 1;
+            if (documentLine >= document.getLineCount()) {
+                return null;
+            }
+
+            // 跳过缩进，使 offset 落在出错语句上
+            CharSequence text = document.getCharsSequence();
+            int offset = document.getLineStartOffset(documentLine);
+            while (offset < document.getLineEndOffset(documentLine) && Character.isWhitespace(text.charAt(offset))) {
+                ++offset;
+            }
+            TextRange blockRange = findEnclosingMethodRange(psiFile, offset);
+
+            int startLine;
+            int endLine;
+            if (blockRange != null) {
+                startLine = document.getLineNumber(blockRange.getStartOffset());
+                endLine = document.getLineNumber(blockRange.getEndOffset());
+            } else {
+                // 字段初始化等不在方法中的代码，取出错行附近的内容
+                startLine = documentLine - MAX_FALLBACK_LINES;
+                endLine = documentLine + MAX_FALLBACK_LINES;
+            }
+            // 过长的方法只保留出错行附近的部分
+            startLine = Math.max(Math.max(startLine, documentLine - MAX_BLOCK_LINES / 2), 0);
+            endLine = Math.min(Math.min(endLine, startLine + MAX_BLOCK_LINES), document.getLineCount() - 1);
+
+            int startOffset = document.getLineStartOffset(startLine);
+            int endOffset = document.getLineEndOffset(endLine);
+            Range range = new Range(
+                new Position(startLine, 0),
+                new Position(endLine, endOffset - document.getLineStartOffset(endLine))
+            );
+
+            return new RangeInFileWithContents(
+                psiFile.getVirtualFile().getUrl(),
+                range,
+                document.getText(new TextRange(startOffset, endOffset))
+            );
+        });
     }
 
-    public static String findErrorLineContentByDefault(Project project, Editor editor, int line) {
-        while(line < editor.getDocument().getLineCount()) {
-            String lineContent = editor.getDocument().getText(new TextRange(editor.getDocument().getLineStartOffset(line), editor.getDocument().getLineEndOffset(line)));
-            ExceptionWorker.ParsedLine myInfo = ExceptionWorker.parseExceptionLine(lineContent);
-            if (myInfo != null && myInfo.fileName != null) {
-                String fileName = myInfo.fileName;
-                int documentLine = myInfo.lineNumber;
-                String classFullPath = lineContent.substring(myInfo.classFqnRange.getStartOffset(), myInfo.classFqnRange.getEndOffset());
-                List<VirtualFile> vFiles = new ArrayList(FilenameIndex.getVirtualFilesByName(project, fileName, GlobalSearchScope.projectScope(project)));
-                if (CollectionUtils.isEmpty(vFiles)) {
-                    ++line;
-                } else {
-                    VirtualFile vFile = findMostRelatedVirtualFile(vFiles, classFullPath);
-                    log.info("Find stacktrace related vfs " + vFile.getName());
+    @Nullable
+    private static PsiFile findSourceFile(Project project, String classFqn, String fileName) {
+        GlobalSearchScope scope = GlobalSearchScope.projectScope(project);
+        // 内部类、匿名类和 lambda 都在顶层类的文件中
+        int innerClassIndex = classFqn.indexOf('$');
+        String topLevelFqn = innerClassIndex > 0 ? classFqn.substring(0, innerClassIndex) : classFqn;
+
+        PsiClass psiClass = JavaPsiFacade.getInstance(project).findClass(topLevelFqn, scope);
+        if (psiClass != null) {
+            PsiFile psiFile = psiClass.getNavigationElement().getContainingFile();
+            if (psiFile != null && fileName.equals(psiFile.getName())) {
+                return psiFile;
+            }
+        }
 
-                    String var14;
-                    try {
-                        String content = new String(vFile.contentsToByteArray(true));
-                        Language language = LanguageUtil.getFileLanguage(vFile);
-                        String languageStr = null;
-                        if (language != null) {
-                            languageStr = language.getDisplayName().toLowerCase();
-                        }
+        // 文件中的顶层函数等没有对应类的情况，按文件名查找
+        List<VirtualFile> vFiles = new ArrayList<>(FilenameIndex.getVirtualFilesByName(project, fileName, scope));
+        if (CollectionUtils.isEmpty(vFiles)) {
+            return null;
+        }
 
-                        StringBuilder sb = getStringBuilder(content, documentLine, languageStr);
-                        var14 = sb.toString();
-                    } catch (IOException var18) {
-                        IOException e = var18;
-                        log.error("vFile parse exception. ", e);
-                        continue;
-                    } finally {
-                        ++line;
-                    }
+        VirtualFile vFile = findMostRelatedVirtualFile(vFiles, topLevelFqn);
+        log.info("Find stacktrace related vfs " + vFile.getName());
+        return PsiManager.getInstance(project).findFile(vFile);
+    }
 
-                    return var14;
-                }
-            } else {
-                ++line;
+    /**
+     * 返回包含 offset 的最内层方法、构造器或初始化块的范围
+     */
+    @Nullable
+    private static TextRange findEnclosingMethodRange(PsiFile psiFile, int offset) {
+        TextRange enclosing = null;
+        for (TextRange range : getMethodRanges(psiFile)) {
+            if (range.getStartOffset() > offset) {
+                break;
+            }
+            // 范围按起始位置排序，后出现且包含 offset 的范围嵌套在之前的范围中
+            if (range.containsOffset(offset)) {
+                enclosing = range;
             }
         }
 
-        return null;
+        return enclosing;
+    }
+
+    private static List<TextRange> getMethodRanges(PsiFile psiFile) {
+        return CachedValuesManager.getCachedValue(psiFile, () -> {
+            List<TextRange> ranges = new ArrayList<>();
+            for (PsiMember member : PsiTreeUtil.findChildrenOfAnyType(psiFile, PsiMethod.class, PsiClassInitializer.class)) {
+                ranges.add(member.getTextRange());
+            }
+            ranges.sort(Comparator.comparingInt(TextRange::getStartOffset));
+            return CachedValueProvider.Result.create(ranges, psiFile);
+        });
     }
 
     public static VirtualFile findMostRelatedVirtualFile(List<VirtualFile> virtualFiles, String classFullPath) {
@@ -177,105 +227,4 @@ public class PsiUtils {
             return null;
         }
     }
-
-    public static @NotNull StringBuilder getStringBuilder(String content, int documentLine, String languageStr) {
-        String[] contentLines = content.split("\n");
-        StringBuilder sb = new StringBuilder();
-//        sb.append("```");
-//        if (StringUtils.isNotBlank(languageStr)) {
-//            sb.append(languageStr);
-//        }
-//
-//        sb.append("\n");
-        sb.append(findCompleteCodeBlock(contentLines, documentLine, "{", "}", 10));
-//        sb.append("\n");
-
-        return sb;
-    }
-
-    public static String findCompleteCodeBlock(String[] contentLines, int documentLine, String blockStartSymbol, String blockEndSymbol, int maxSearchLine) {
-        int i = 0;
-
-        boolean found;
-        for(found = false; documentLine - i >= 0 && i < maxSearchLine; ++i) {
-            String line = contentLines[documentLine - i];
-            if (line.endsWith(blockStartSymbol)) {
-                found = true;
-                break;
-            }
-        }
-
-        int j = 0;
-        if (found) {
-            while(documentLine + j <= contentLines.length - 1 && j < maxSearchLine) {
-                String line = contentLines[documentLine + j];
-                if (line.endsWith(blockEndSymbol)) {
-                    break;
-                }
-
-                ++j;
-            }
-        } else {
-            j = maxSearchLine;
-        }
-
-        StringBuilder sb = new StringBuilder();
-
-        for(int k = Math.max(documentLine - i, 0); k <= Math.min(documentLine + j, contentLines.length - 1); ++k) {
-            sb.append(contentLines[k]);
-            sb.append("\n");
-        }
-
-        if (sb.length() > 1) {
-            sb.setLength(sb.length() - 1);
-        }
-
-        return sb.toString();
-    }
-
-    /**
-     * 查找代码块的起始和结束行号
-     * @param contentLines 文件内容按行分割的数组
-     * @param documentLine 目标行号
-     * @param blockStartSymbol 代码块开始符号
-     * @param blockEndSymbol 代码块结束符号
-     * @param maxSearchLine 最大搜索行数
-     * @return 包含起始行号和结束行号的数组 [startLine, endLine]
-     */
-    public static int[] findCodeBlockRange(String[] contentLines, int documentLine, String blockStartSymbol, String blockEndSymbol, int maxSearchLine) {
-        int i = 0;
-
-        boolean found;
-        for(found = false; documentLine - i >= 0 && i < maxSearchLine; ++i) {
-            String line = contentLines[documentLine - i];
-            if (line.endsWith(blockStartSymbol)) {
-                found = true;
-                break;
-            }
-        }
-
-        int j = 0;
-        if (found) {
-            while(documentLine + j <= contentLines.length - 1 && j < maxSearchLine) {
-                String line = contentLines[documentLine + j];
-                if (line.endsWith(blockEndSymbol)) {
-                    break;
-                }
-
-                ++j;
-            }
-        } else {
-            j = maxSearchLine;
-        }
-
-        int startLine = Math.max(documentLine - i, 0);
-        int endLine = Math.min(documentLine + j, contentLines.length - 1);
-
-        return new int[]{startLine, endLine};
-    }
-
-    static {
-        INVALID_COMMON_TOKENSET = TokenSet.create(new IElementType[]{TokenType.BAD_CHARACTER, TokenType.WHITE_SPACE, TokenType.NEW_LINE_INDENT, TokenType.ERROR_ELEMENT});
-        FILE_TYPE_CLASSES = new String[]{"com.intellij.ide.highlighter.JavaFileType", "com.jetbrains.python.PythonFileType", "com.goide.GoFileType"};
-    }
 }
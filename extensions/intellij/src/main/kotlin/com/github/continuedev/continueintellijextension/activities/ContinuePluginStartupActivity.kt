@@ -6,10 +6,13 @@ import com.github.continuedev.continueintellijextension.auth.ContinueAuthService
 import com.github.continuedev.continueintellijextension.auth.ControlPlaneSessionInfo
 import com.github.continuedev.continueintellijextension.constants.getContinueGlobalPath
 import com.github.continuedev.continueintellijextension.`continue`.*
+import com.github.continuedev.continueintellijextension.editor.DiffStreamService
+import com.github.continuedev.continueintellijextension.factories.WebviewAssetCache
 import com.github.continuedev.continueintellijextension.listeners.ContinuePluginSelectionListener
 import com.github.continuedev.continueintellijextension.services.ContinueExtensionSettings
 import com.github.continuedev.continueintellijextension.services.ContinuePluginService
 import com.github.continuedev.continueintellijextension.services.SettingsListener
+import com.github.continuedev.continueintellijextension.toolWindow.ContinuePluginToolWindowFactory
 import com.github.continuedev.continueintellijextension.utils.toUriOrNull
 import com.intellij.openapi.actionSystem.KeyboardShortcut
 import com.intellij.openapi.application.ApplicationManager
@@ -21,6 +24,7 @@ import com.intellij.openapi.keymap.KeymapManager
 import com.intellij.openapi.project.DumbAware
 import com.intellij.openapi.project.Project
 import com.intellij.openapi.startup.StartupActivity
+import com.intellij.openapi.util.Disposer
 import com.intellij.openapi.util.io.StreamUtil
 import com.intellij.openapi.vfs.LocalFileSystem
 import kotlinx.coroutines.*
@@ -127,6 +131,11 @@ class ContinuePluginStartupActivity : StartupActivity, DumbAware {
             ContinuePluginService::class.java
         )
 
+        // Read the GUI bundle into memory before the tool window asks for it
+        coroutineScope.launch {
+            WebviewAssetCache.preload()
+        }
+
         coroutineScope.launch {
             val settings =
                 ServiceManager.getService(ContinueExtensionSettings::class.java)
@@ -207,6 +216,9 @@ class ContinuePluginStartupActivity : StartupActivity, DumbAware {
                 }
 
                 override fun fileOpened(source: FileEditorManager, file: VirtualFile) {
+                    // Show diffs that were applied in the background while the file was closed
+                    project.service<DiffStreamService>().onFileOpened(file)
+
                     file.toUriOrNull()?.let { uri ->
                         val data = mapOf("uris" to listOf(uri))
                         continuePluginService.coreMessenger?.request("files/opened", data, null) { _ -> }
@@ -252,10 +264,8 @@ class ContinuePluginStartupActivity : StartupActivity, DumbAware {
                 }
             })
 
-            val listener =
-                ContinuePluginSelectionListener(
-                    coroutineScope,
-                )
+            val listener = ContinuePluginSelectionListener()
+            Disposer.register(ContinuePluginDisposable.getInstance(project), listener)
 
             // Reload the WebView
             continuePluginService?.let { pluginService ->
@@ -275,6 +285,15 @@ class ContinuePluginStartupActivity : StartupActivity, DumbAware {
 
             val coreMessengerManager = CoreMessengerManager(project, ideProtocolClient, coroutineScope)
             continuePluginService.coreMessengerManager = coreMessengerManager
+
+            if (settings.continueState.preloadWebview) {
+                ApplicationManager.getApplication().invokeLater {
+                    if (!project.isDisposed && continuePluginService.continuePluginWindow == null) {
+                        // Creating the browser registers the window with the plugin service
+                        ContinuePluginToolWindowFactory.ContinuePluginWindow(project).browser
+                    }
+                }
+            }
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,87 @@
+package com.github.continuedev.continueintellijextension.checkpoint
+
+import java.nio.file.Files
+import java.nio.file.Path
+
+/**
+ * Append-only log of the edits the agent made, one unified diff per tool call and file.
+ *
+ * Entries are indexed by tool call, so the changes of a single step can be undone without looking at the rest
+ * of the history. Entries older than [MAX_AGE_MS] or beyond [MAX_ENTRIES] are dropped when
+ * the journal is loaded.
+ */
+class AgentEditJournal(
+    private val directory: Path,
+    private val clock: () -> Long = System::currentTimeMillis,
+) {
+    /**
+     * One edit of [path], [created] is set if the file didn't exist before
+     */
+    data class Entry(
+        val timestamp: Long,
+        val toolCallId: String?,
+        val path: String,
+        val diff: String,
+        val created: Boolean = false,
+    )
+
+    private val log = JsonLinesFile(directory.resolve("journal.jsonl"), Entry::class.java)
+
+    private val entriesByToolCall = HashMap<String, MutableList<Entry>>()
+    private var isLoaded = false
+
+    /**
+     * Records the edit of [path] from [before] to [after], a null content means the file didn't exist.
+     * Returns null if nothing changed or the file is too large to diff.
+     */
+    @Synchronized
+    fun record(toolCallId: String?, path: String, before: String?, after: String?): Entry? {
+        ensureLoaded()
+
+        val diff = UnifiedDiff.create(before ?: "", after ?: "")
+        if (diff.isNullOrEmpty()) {
+            return null
+        }
+
+        val entry = Entry(clock(), toolCallId, path, diff, created = before == null && after != null)
+        index(entry)
+        log.append(entry)
+        return entry
+    }
+
+    /**
+     * Returns the edits of one tool call, oldest first
+     */
+    @Synchronized
+    fun entriesForToolCall(toolCallId: String): List<Entry> {
+        ensureLoaded()
+        return entriesByToolCall[toolCallId]?.toList() ?: emptyList()
+    }
+
+    private fun index(entry: Entry) {
+        entry.toolCallId?.let { entriesByToolCall.getOrPut(it) { mutableListOf() }.add(entry) }
+    }
+
+    private fun ensureLoaded() {
+        if (isLoaded) {
+            return
+        }
+        isLoaded = true
+        Files.createDirectories(directory)
+
+        val all = log.readAll().sortedBy { it.timestamp }
+        val cutoff = clock() - MAX_AGE_MS
+        val kept = all.filter { it.timestamp >= cutoff }.takeLast(MAX_ENTRIES)
+        kept.forEach { index(it) }
+
+        if (kept.size < all.size) {
+            log.rewrite(kept)
+        }
+    }
+
+    companion object {
+        private const val MAX_AGE_MS = 14 * 24 * 60 * 60 * 1000L
+
+        private const val MAX_ENTRIES = 20_000
+    }
+}
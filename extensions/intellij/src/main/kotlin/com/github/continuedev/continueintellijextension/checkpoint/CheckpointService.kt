@@ -0,0 +1,224 @@
+package com.github.continuedev.continueintellijextension.checkpoint
+
+import com.github.continuedev.continueintellijextension.constants.getContinueGlobalPath
+import com.github.continuedev.continueintellijextension.services.ContinueExecutors
+import com.intellij.openapi.application.ApplicationManager
+import com.intellij.openapi.command.WriteCommandAction
+import com.intellij.openapi.components.Service
+import com.intellij.openapi.components.service
+import com.intellij.openapi.diagnostic.Logger
+import com.intellij.openapi.fileEditor.FileDocumentManager
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.util.io.FileUtil
+import com.intellij.openapi.util.text.StringUtil
+import com.intellij.openapi.vfs.LocalFileSystem
+import com.intellij.openapi.vfs.VfsUtil
+import com.intellij.openapi.vfs.VirtualFile
+import kotlinx.coroutines.withContext
+import java.io.File
+import java.io.IOException
+import java.nio.file.Paths
+import java.util.concurrent.RejectedExecutionException
+
+/**
+ * Records the files of the project before the agent edits them and restores them for rollbacks.
+ *
+ * See [CheckpointStore] for how snapshots are kept. Restoring reads the snapshots in the background and then
+ * writes all files in a single write command, so its cost only depends on the number of files touched. Once an
+ * edit is done its diff goes into the [AgentEditJournal], which allows undoing a single tool call.
+ */
+@Service(Service.Level.PROJECT)
+class CheckpointService(private val project: Project) {
+    private val directory = Paths.get(getContinueGlobalPath(), "checkpoints", project.locationHash)
+    private val store = CheckpointStore(directory)
+    private val journal = AgentEditJournal(directory)
+    private val ioDispatcher get() = ContinueExecutors.getInstance().dispatcher(ContinueExecutors.Pool.IO)
+
+    private class Restore(val path: String, val file: VirtualFile?, val content: String?)
+
+    /**
+     * An edit in progress, [finish] it once the new content is known
+     */
+    inner class Edit(private val path: String, private val before: String?, private val toolCallId: String?) {
+        fun finish(after: CharSequence?) {
+            // Diffing large files takes a while, and this is usually called on the EDT
+            try {
+                ContinueExecutors.getInstance().executor(ContinueExecutors.Pool.IO).execute {
+                    try {
+                        journal.record(toolCallId, path, before, after?.let { StringUtil.convertLineSeparators(it.toString()) })
+                    } catch (e: IOException) {
+                        LOG.warn("Failed to journal edit of $path", e)
+                    }
+                }
+            } catch (e: RejectedExecutionException) {
+                LOG.warn("Skipped journaling edit of $path", e)
+            }
+        }
+    }
+
+    /**
+     * Records the current content of [file] before it gets edited. Files outside the project, such as the
+     * configuration, are ignored. Must not be called on the EDT.
+     */
+    fun recordBeforeEdit(file: File, toolCallId: String?): Edit? {
+        val basePath = project.basePath ?: return null
+        if (!FileUtil.isAncestor(basePath, file.absolutePath, false)) {
+            return null
+        }
+
+        val path = FileUtil.toSystemIndependentName(file.absolutePath)
+        return try {
+            val content = readCurrentContent(file)
+            store.record(path, content, toolCallId)
+            Edit(path, content, toolCallId)
+        } catch (e: IOException) {
+            LOG.warn("Failed to record checkpoint for ${file.path}", e)
+            null
+        }
+    }
+
+    /**
+     * Returns the content [file] had at [timestamp], empty if it didn't exist, or null if the store doesn't
+     * reach back that far
+     */
+    suspend fun contentAt(timestamp: Long, file: File): String? {
+        return withContext(ioDispatcher) {
+            if (timestamp < store.trackingSince) {
+                return@withContext null
+            }
+
+            val snapshot = store.snapshotAt(FileUtil.toSystemIndependentName(file.absolutePath), timestamp)
+            if (snapshot != null) store.readContent(snapshot) ?: "" else readCurrentContent(file) ?: ""
+        }
+    }
+
+    /**
+     * Restores all files edited since [timestamp], or only [file] if given, to their content at that time.
+     * Returns false if the store doesn't reach back that far, the caller has to fall back to local history then.
+     */
+    suspend fun restore(timestamp: Long, file: File? = null): Boolean {
+        val restores = withContext(ioDispatcher) {
+            if (timestamp < store.trackingSince) {
+                return@withContext null
+            }
+
+            val snapshots = if (file != null) {
+                listOfNotNull(store.snapshotAt(FileUtil.toSystemIndependentName(file.absolutePath), timestamp))
+            } else {
+                store.snapshotsAt(timestamp)
+            }
+
+            snapshots.map { snapshot ->
+                Restore(
+                    snapshot.path,
+                    LocalFileSystem.getInstance().refreshAndFindFileByPath(snapshot.path),
+                    store.readContent(snapshot)
+                )
+            }
+        } ?: return false
+
+        writeFiles(restores, "Rollback Agent Changes")
+        return true
+    }
+
+    /**
+     * Undoes the edits of one tool call, on all files or only on [file]. Later edits elsewhere in the files are
+     * kept, and a file the tool call created is deleted again if nothing was added to it since. Returns the
+     * paths that couldn't be reverted because the edited lines changed since, or [file] if the journal has no
+     * edit of it for this tool call.
+     */
+    suspend fun revertToolCall(toolCallId: String, file: File? = null): List<String> {
+        val filePath = file?.let { FileUtil.toSystemIndependentName(it.absolutePath) }
+        val conflicts = mutableListOf<String>()
+
+        val restores = withContext(ioDispatcher) {
+            val toolCallEntries = journal.entriesForToolCall(toolCallId)
+                .filter { filePath == null || it.path == filePath }
+            if (filePath != null && toolCallEntries.isEmpty()) {
+                conflicts.add(filePath)
+            }
+
+            toolCallEntries.groupBy { it.path }
+                .mapNotNull { (path, entries) ->
+                    val current = readCurrentContent(File(path)) ?: ""
+                    // Undo the newest edit first, each diff was made against the result of the previous one
+                    val reverted = entries.asReversed().fold(current as String?) { content, entry ->
+                        content?.let { UnifiedDiff.apply(it, entry.diff, reverse = true) }
+                    }
+                    if (reverted == null) {
+                        conflicts.add(path)
+                        null
+                    } else {
+                        val isCreated = entries.first().created && reverted.isEmpty()
+                        Restore(
+                            path,
+                            LocalFileSystem.getInstance().refreshAndFindFileByPath(path),
+                            if (isCreated) null else reverted
+                        )
+                    }
+                }
+        }
+
+        writeFiles(restores, "Revert Agent Step")
+        return conflicts
+    }
+
+    private fun writeFiles(restores: List<Restore>, commandName: String) {
+        if (restores.isEmpty()) {
+            return
+        }
+        ApplicationManager.getApplication().invokeAndWait {
+            WriteCommandAction.runWriteCommandAction(project, commandName, null, Runnable {
+                restores.forEach { restoreFile(it) }
+            })
+        }
+    }
+
+    private fun restoreFile(restore: Restore) {
+        try {
+            if (restore.content == null) {
+                restore.file?.delete(this)
+                return
+            }
+
+            val file = restore.file ?: createFile(restore.path) ?: return
+            val fileDocumentManager = FileDocumentManager.getInstance()
+            val document = fileDocumentManager.getDocument(file)
+            if (document == null) {
+                VfsUtil.saveText(file, restore.content)
+                return
+            }
+
+            val content = StringUtil.convertLineSeparators(restore.content)
+            if (!StringUtil.equals(document.immutableCharSequence, content)) {
+                document.setText(content)
+            }
+            fileDocumentManager.saveDocument(document)
+        } catch (e: IOException) {
+            LOG.warn("Failed to restore ${restore.path}", e)
+        }
+    }
+
+    private fun createFile(path: String): VirtualFile? {
+        val ioFile = File(path)
+        val parent = VfsUtil.createDirectoryIfMissing(ioFile.parent) ?: return null
+        return parent.createChildData(this, ioFile.name)
+    }
+
+    private fun readCurrentContent(file: File): String? {
+        // An open document may hold changes that aren't saved yet
+        val virtualFile = LocalFileSystem.getInstance().findFileByIoFile(file)
+        val document = virtualFile?.let { FileDocumentManager.getInstance().getCachedDocument(it) }
+        if (document != null) {
+            return ApplicationManager.getApplication().runReadAction<String> { document.text }
+        }
+        // Documents always use \n, the journal's diffs must not differ in line separators only
+        return if (file.isFile) StringUtil.convertLineSeparators(file.readText()) else null
+    }
+
+    companion object {
+        private val LOG = Logger.getInstance(CheckpointService::class.java)
+
+        fun getInstance(project: Project): CheckpointService = project.service()
+    }
+}
@@ -0,0 +1,178 @@
+package com.github.continuedev.continueintellijextension.checkpoint
+
+import java.io.IOException
+import java.nio.charset.StandardCharsets
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardCopyOption
+import java.security.MessageDigest
+
+/**
+ * On-disk snapshots of files taken right before the agent edits them.
+ *
+ * The content of a file at a point in time is the first snapshot recorded for it after that time, or its
+ * current content if there is none. So finding what to restore only looks at the snapshots of the files the
+ * agent touched, instead of scanning the project's local history.
+ *
+ * Contents are stored once per SHA-256 hash in `blobs/`, the snapshots are appended to `index.jsonl`.
+ * Snapshots older than [MAX_AGE_MS] or beyond [MAX_SNAPSHOTS] are dropped when the store is loaded and, in
+ * batches, while recording, and [trackingSince] moves forward accordingly.
+ */
+class CheckpointStore(
+    private val directory: Path,
+    private val clock: () -> Long = System::currentTimeMillis,
+) {
+    /**
+     * Content of [path] right before an edit, [hash] is null if the file didn't exist
+     */
+    data class Snapshot(val timestamp: Long, val path: String, val hash: String?, val toolCallId: String?)
+
+    private val index = JsonLinesFile(directory.resolve("index.jsonl"), Snapshot::class.java)
+    private val sinceFile = directory.resolve("since")
+    private val blobs = directory.resolve("blobs")
+
+    private val snapshots = HashMap<String, MutableList<Snapshot>>()
+    private var isLoaded = false
+    private var since = 0L
+    private var count = 0
+    private var oldest = Long.MAX_VALUE
+
+    /**
+     * Time from which on all edits are recorded, older checkpoints can't be restored from this store
+     */
+    @get:Synchronized
+    val trackingSince: Long
+        get() {
+            ensureLoaded()
+            return since
+        }
+
+    @Synchronized
+    fun record(path: String, content: String?, toolCallId: String?): Snapshot {
+        ensureLoaded()
+
+        val hash = content?.let { writeBlob(it) }
+        val snapshot = Snapshot(clock(), path, hash, toolCallId)
+        // Timestamps within a file must not go backwards, or the lookups below would pick the wrong one
+        val fileSnapshots = snapshots.getOrPut(path) { mutableListOf() }
+        val ordered = fileSnapshots.lastOrNull()?.let {
+            if (it.timestamp > snapshot.timestamp) snapshot.copy(timestamp = it.timestamp) else null
+        } ?: snapshot
+
+        fileSnapshots.add(ordered)
+        index.append(ordered)
+        count++
+        oldest = minOf(oldest, ordered.timestamp)
+
+        // Compacting rewrites the whole index, so it only happens once a batch of snapshots is over the limits
+        if (count > MAX_SNAPSHOTS || oldest < clock() - MAX_AGE_MS - COMPACT_INTERVAL_MS) {
+            retain(snapshots.values.flatten().sortedBy { it.timestamp }, MAX_SNAPSHOTS - COMPACT_BATCH)
+        }
+        return ordered
+    }
+
+    /**
+     * Returns the snapshot holding the content [path] had at [timestamp], null if it hasn't been edited since
+     */
+    @Synchronized
+    fun snapshotAt(path: String, timestamp: Long): Snapshot? {
+        ensureLoaded()
+        return snapshots[path]?.firstOrNull { it.timestamp >= timestamp }
+    }
+
+    /**
+     * Returns one snapshot per file edited since [timestamp], holding the content it had at that time
+     */
+    @Synchronized
+    fun snapshotsAt(timestamp: Long): List<Snapshot> {
+        ensureLoaded()
+        return snapshots.values.mapNotNull { fileSnapshots -> fileSnapshots.firstOrNull { it.timestamp >= timestamp } }
+    }
+
+    /**
+     * Returns the content of [snapshot], null if the file didn't exist
+     */
+    fun readContent(snapshot: Snapshot): String? {
+        val hash = snapshot.hash ?: return null
+        return String(Files.readAllBytes(blobs.resolve(hash)), StandardCharsets.UTF_8)
+    }
+
+    private fun writeBlob(content: String): String {
+        val bytes = content.toByteArray(StandardCharsets.UTF_8)
+        val hash = MessageDigest.getInstance("SHA-256").digest(bytes).joinToString("") { "%02x".format(it) }
+        val blob = blobs.resolve(hash)
+        if (Files.notExists(blob)) {
+            Files.createDirectories(blobs)
+            // Write to a temporary file first so that a crash never leaves a truncated blob behind
+            val temp = Files.createTempFile(blobs, hash, ".tmp")
+            Files.write(temp, bytes)
+            Files.move(temp, blob, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+        }
+        return hash
+    }
+
+    private fun ensureLoaded() {
+        if (isLoaded) {
+            return
+        }
+        isLoaded = true
+        Files.createDirectories(directory)
+
+        since = readSince() ?: clock().also { writeSince(it) }
+
+        retain(index.readAll().sortedBy { it.timestamp }, MAX_SNAPSHOTS)
+    }
+
+    /**
+     * Keeps the newest [maxCount] snapshots of [all] that aren't expired, [all] must be sorted by timestamp
+     */
+    private fun retain(all: List<Snapshot>, maxCount: Int) {
+        val cutoff = clock() - MAX_AGE_MS
+        val kept = all.filter { it.timestamp >= cutoff }.takeLast(maxCount)
+        snapshots.clear()
+        kept.forEach { snapshots.getOrPut(it.path) { mutableListOf() }.add(it) }
+        count = kept.size
+        oldest = kept.firstOrNull()?.timestamp ?: Long.MAX_VALUE
+
+        if (kept.size < all.size) {
+            // Checkpoints before the oldest dropped snapshot can no longer be restored
+            since = maxOf(since, all[all.size - kept.size - 1].timestamp + 1)
+            writeSince(since)
+            compact(kept)
+        }
+    }
+
+    private fun compact(kept: List<Snapshot>) {
+        index.rewrite(kept)
+
+        if (Files.notExists(blobs)) {
+            return
+        }
+        val referenced = kept.mapNotNullTo(HashSet()) { it.hash }
+        Files.newDirectoryStream(blobs).use { stream ->
+            stream.filter { it.fileName.toString() !in referenced }.forEach { Files.deleteIfExists(it) }
+        }
+    }
+
+    private fun readSince(): Long? {
+        return try {
+            Files.readAllLines(sinceFile).firstOrNull()?.trim()?.toLongOrNull()
+        } catch (e: IOException) {
+            null
+        }
+    }
+
+    private fun writeSince(value: Long) {
+        Files.write(sinceFile, value.toString().toByteArray(StandardCharsets.UTF_8))
+    }
+
+    companion object {
+        private const val MAX_AGE_MS = 14 * 24 * 60 * 60 * 1000L
+
+        private const val MAX_SNAPSHOTS = 20_000
+
+        private const val COMPACT_BATCH = 1_000
+
+        private const val COMPACT_INTERVAL_MS = 24 * 60 * 60 * 1000L
+    }
+}
@@ -0,0 +1,48 @@
+package com.github.continuedev.continueintellijextension.checkpoint
+
+import com.google.gson.Gson
+import com.google.gson.JsonSyntaxException
+import java.nio.charset.StandardCharsets
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardCopyOption
+import java.nio.file.StandardOpenOption
+
+/**
+ * Append-only file with one JSON object per line
+ */
+class JsonLinesFile<T>(private val file: Path, private val type: Class<T>) {
+    private val gson = Gson()
+
+    fun readAll(): List<T> {
+        if (Files.notExists(file)) {
+            return emptyList()
+        }
+        return Files.readAllLines(file, StandardCharsets.UTF_8).mapNotNull { line ->
+            try {
+                gson.fromJson(line, type)
+            } catch (e: JsonSyntaxException) {
+                // A line cut off by a crash
+                null
+            }
+        }
+    }
+
+    fun append(item: T) {
+        Files.write(
+            file,
+            (gson.toJson(item) + "\n").toByteArray(StandardCharsets.UTF_8),
+            StandardOpenOption.CREATE,
+            StandardOpenOption.APPEND
+        )
+    }
+
+    /**
+     * Replaces the content with [items], atomically so that a crash keeps either the old or the new lines
+     */
+    fun rewrite(items: List<T>) {
+        val temp = Files.createTempFile(file.parent, file.fileName.toString(), ".tmp")
+        Files.write(temp, items.map { gson.toJson(it) }, StandardCharsets.UTF_8)
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+    }
+}
@@ -0,0 +1,131 @@
+package com.github.continuedev.continueintellijextension.checkpoint
+
+import com.intellij.util.diff.Diff
+import com.intellij.util.diff.FilesTooBigForDiffException
+import kotlin.math.abs
+import kotlin.math.max
+import kotlin.math.min
+
+/**
+ * Line based unified diffs between two versions of a file.
+ *
+ * Lines are split on `\n` only, so joining them back restores the text exactly, including a missing or
+ * trailing line break at the end of the file.
+ */
+object UnifiedDiff {
+    private const val CONTEXT_LINES = 3
+
+    private val HUNK_HEADER = Regex("""^@@ -(\d+),(\d+) \+(\d+),(\d+) @@""")
+
+    private class Hunk(val oldStart: Int, val newStart: Int, val lines: List<String>) {
+        fun oldLines(): List<String> = lines.filter { it[0] != '+' }.map { it.substring(1) }
+
+        fun newLines(): List<String> = lines.filter { it[0] != '-' }.map { it.substring(1) }
+    }
+
+    /**
+     * Returns the diff from [before] to [after], empty if they are equal and null if they are too large
+     */
+    fun create(before: String, after: String): String? {
+        val beforeLines = before.split("\n").toTypedArray()
+        val afterLines = after.split("\n").toTypedArray()
+        val changes = try {
+            generateSequence(Diff.buildChanges(beforeLines, afterLines)) { it.link }.toList()
+        } catch (e: FilesTooBigForDiffException) {
+            return null
+        }
+
+        val diff = StringBuilder()
+        var i = 0
+        while (i < changes.size) {
+            // Changes whose context overlaps go into the same hunk
+            var j = i
+            while (j + 1 < changes.size && changes[j + 1].line0 - (changes[j].line0 + changes[j].deleted) <= 2 * CONTEXT_LINES) {
+                j++
+            }
+
+            val first = changes[i]
+            val last = changes[j]
+            val oldStart = max(0, first.line0 - CONTEXT_LINES)
+            val oldEnd = min(beforeLines.size, last.line0 + last.deleted + CONTEXT_LINES)
+            val newStart = first.line1 - (first.line0 - oldStart)
+            val newEnd = last.line1 + last.inserted + (oldEnd - (last.line0 + last.deleted))
+            diff.append("@@ -${oldStart + 1},${oldEnd - oldStart} +${newStart + 1},${newEnd - newStart} @@\n")
+
+            var line = oldStart
+            for (change in changes.subList(i, j + 1)) {
+                while (line < change.line0) {
+                    diff.append(' ').append(beforeLines[line++]).append('\n')
+                }
+                for (k in 0 until change.deleted) {
+                    diff.append('-').append(beforeLines[change.line0 + k]).append('\n')
+                }
+                for (k in 0 until change.inserted) {
+                    diff.append('+').append(afterLines[change.line1 + k]).append('\n')
+                }
+                line = change.line0 + change.deleted
+            }
+            while (line < oldEnd) {
+                diff.append(' ').append(beforeLines[line++]).append('\n')
+            }
+
+            i = j + 1
+        }
+        return diff.toString()
+    }
+
+    /**
+     * Applies [diff] to [text], or undoes it if [reverse] is set. Hunks whose lines moved because of other
+     * edits are searched for in the rest of the file. Returns null if a hunk doesn't match anywhere.
+     */
+    fun apply(text: String, diff: String, reverse: Boolean = false): String? {
+        val lines = text.split("\n").toMutableList()
+        // Where the lines of the diff's original version are in the text, after applying the previous hunks
+        var delta = 0
+
+        for (hunk in parse(diff)) {
+            val expected = if (reverse) hunk.newLines() else hunk.oldLines()
+            val replacement = if (reverse) hunk.oldLines() else hunk.newLines()
+            val start = (if (reverse) hunk.newStart else hunk.oldStart) - 1
+
+            val position = find(lines, expected, start + delta) ?: return null
+            lines.subList(position, position + expected.size).clear()
+            lines.addAll(position, replacement)
+            delta = position - start + replacement.size - expected.size
+        }
+        return lines.joinToString("\n")
+    }
+
+    private fun find(lines: List<String>, expected: List<String>, preferred: Int): Int? {
+        fun matches(position: Int) =
+            position >= 0 && position + expected.size <= lines.size && lines.subList(position, position + expected.size) == expected
+
+        if (matches(preferred)) {
+            return preferred
+        }
+        return (0..lines.size - expected.size).filter { matches(it) }.minByOrNull { abs(it - preferred) }
+    }
+
+    private fun parse(diff: String): List<Hunk> {
+        val hunks = mutableListOf<Hunk>()
+        var header: MatchResult? = null
+        var lines = mutableListOf<String>()
+
+        fun flush() {
+            header?.let { hunks.add(Hunk(it.groupValues[1].toInt(), it.groupValues[3].toInt(), lines)) }
+        }
+
+        for (line in diff.split("\n")) {
+            val match = HUNK_HEADER.find(line)
+            if (match != null) {
+                flush()
+                header = match
+                lines = mutableListOf()
+            } else if (line.isNotEmpty()) {
+                lines.add(line)
+            }
+        }
+        flush()
+        return hunks
+    }
+}
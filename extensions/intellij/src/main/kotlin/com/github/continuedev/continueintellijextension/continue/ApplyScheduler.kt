@@ -0,0 +1,81 @@
+package com.github.continuedev.continueintellijextension.`continue`
+
+import com.github.continuedev.continueintellijextension.ApplyState
+import com.github.continuedev.continueintellijextension.ApplyStateStatus
+import com.github.continuedev.continueintellijextension.IDE
+import com.github.continuedev.continueintellijextension.ToastType
+import com.github.continuedev.continueintellijextension.protocol.ApplyToFileParams
+import com.github.continuedev.continueintellijextension.services.ContinueExtensionSettings
+import com.github.continuedev.continueintellijextension.services.ContinuePluginService
+import com.intellij.openapi.Disposable
+import com.intellij.openapi.components.Service
+import com.intellij.openapi.project.Project
+import kotlinx.coroutines.*
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Runs apply-to-file requests in the background so that agent runs touching many files don't apply them
+ * one at a time. At most `maxParallelApplies` diff streams run concurrently, the rest wait in FIFO order.
+ */
+@Service(Service.Level.PROJECT)
+class ApplyScheduler(private val project: Project) : Disposable {
+    private val coroutineScope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+    private val permits = Semaphore(
+        ContinueExtensionSettings.instance.continueState.maxParallelApplies.coerceAtLeast(1)
+    )
+    private val pendingApplies = AtomicInteger(0)
+
+    fun schedule(continuePluginService: ContinuePluginService, ide: IDE, params: ApplyToFileParams) {
+        if (pendingApplies.incrementAndGet() > MAX_PENDING_APPLIES) {
+            pendingApplies.decrementAndGet()
+            rejectApply(continuePluginService, ide, params)
+            return
+        }
+
+        coroutineScope.launch {
+            try {
+                permits.withPermit {
+                    val handler = ApplyToFileHandler.apply(project, continuePluginService, ide, params)
+
+                    // Hold the permit while the model is streaming, reviewing the diff doesn't count
+                    withTimeoutOrNull(STREAM_TIMEOUT_MS) { handler.awaitCompletion() }
+                }
+            } catch (e: CancellationException) {
+                throw e
+            } catch (e: Exception) {
+                println("Error applying to file ${params.filepath}: ${e.message}")
+            } finally {
+                pendingApplies.decrementAndGet()
+            }
+        }
+    }
+
+    private fun rejectApply(continuePluginService: ContinuePluginService, ide: IDE, params: ApplyToFileParams) {
+        continuePluginService.sendToWebview(
+            "updateApplyState",
+            ApplyState(
+                streamId = params.streamId,
+                status = ApplyStateStatus.CLOSED.status,
+                numDiffs = 0,
+                filepath = params.filepath,
+                toolCallId = params.toolCallId
+            )
+        )
+
+        coroutineScope.launch {
+            ide.showToast(ToastType.ERROR, "Too many pending edits, please try again later")
+        }
+    }
+
+    override fun dispose() {
+        coroutineScope.cancel()
+    }
+
+    companion object {
+        private const val MAX_PENDING_APPLIES = 64
+
+        private const val STREAM_TIMEOUT_MS = 5 * 60 * 1000L
+    }
+}
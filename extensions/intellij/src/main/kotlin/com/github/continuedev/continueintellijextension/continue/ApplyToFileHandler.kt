@@ -4,19 +4,21 @@ import com.github.continuedev.continueintellijextension.ApplyState
 import com.github.continuedev.continueintellijextension.ApplyStateStatus
 import com.github.continuedev.continueintellijextension.IDE
 import com.github.continuedev.continueintellijextension.ToastType
+import com.github.continuedev.continueintellijextension.checkpoint.CheckpointService
+import com.github.continuedev.continueintellijextension.editor.ContextWindow
 import com.github.continuedev.continueintellijextension.editor.DiffStreamHandler
 import com.github.continuedev.continueintellijextension.editor.DiffStreamService
 import com.github.continuedev.continueintellijextension.editor.EditorUtils
 import com.github.continuedev.continueintellijextension.protocol.ApplyToFileParams
 import com.github.continuedev.continueintellijextension.services.ContinuePluginService
-import com.github.continuedev.continueintellijextension.utils.castNestedOrNull
+import com.github.continuedev.continueintellijextension.services.TelemetryService
+import com.intellij.openapi.application.ApplicationManager
+import com.intellij.openapi.components.service
 import com.intellij.openapi.editor.Editor
 import com.intellij.openapi.project.Project
 import com.intellij.openapi.util.TextRange
-import kotlinx.coroutines.suspendCancellableCoroutine
-import java.net.URI
-import kotlin.coroutines.resume
-import kotlin.coroutines.resumeWithException
+import com.intellij.openapi.vfs.VirtualFileManager
+import kotlinx.coroutines.CompletableDeferred
 
 /**
  * Handles applying text to a file with streaming diff preview
@@ -27,8 +29,15 @@ class ApplyToFileHandler(
     private val ide: IDE,
     private val params: ApplyToFileParams,
     private val editorUtils: EditorUtils?,
-    private val diffStreamService: DiffStreamService
+    private val diffStreamService: DiffStreamService,
+    private val edit: CheckpointService.Edit? = null
 ) {
+    // Completed once the diff stream has finished (or the apply was closed early), see ApplyScheduler
+    private val completion = CompletableDeferred<Unit>()
+
+    suspend fun awaitCompletion() {
+        completion.await()
+    }
 
     suspend fun handleApplyToFile() {
         // Notify webview that we're starting to stream
@@ -42,10 +51,16 @@ class ApplyToFileHandler(
 
         if (editorUtils.isDocumentEmpty()) {
             editorUtils.insertTextIntoEmptyDocument(params.text)
+            edit?.finish(params.text)
             notifyStreamClosed()
             return
         }
 
+        // Blocks that replace a clearly identifiable region are applied locally, without the model
+        if (tryFastApply(editorUtils)) {
+            return
+        }
+
         // Get the LLM configuration for applying edits
         val llm = fetchApplyLLMConfig() ?: run {
             ide.showToast(ToastType.ERROR, "Failed to fetch model configuration")
@@ -56,12 +71,42 @@ class ApplyToFileHandler(
         setupAndStreamDiffs(editorUtils, llm)
     }
 
+    private fun tryFastApply(editorUtils: EditorUtils): Boolean {
+        val documentLines = ApplicationManager.getApplication().runReadAction<List<String>> {
+            editorUtils.editor.document.immutableCharSequence.lines()
+        }
+
+        val match = FastApplyMatcher.match(documentLines, params.text)
+        reportFastApplyResult(match != null)
+        if (match == null) {
+            return false
+        }
+
+        diffStreamService.reject(editorUtils.editor)
+
+        val diffStreamHandler = createDiffStreamHandler(editorUtils.editor, match.startLine, match.endLine)
+        diffStreamService.register(diffStreamHandler, editorUtils.editor)
+        diffStreamHandler.applyDiffLinesToEditor(match.diffLines)
+        return true
+    }
+
+    private fun reportFastApplyResult(hit: Boolean) {
+        val (hits, attempts) = FastApplyMatcher.recordResult(hit)
+        println("Fast apply ${if (hit) "hit" else "missed"}, hit rate $hits/$attempts")
+
+        service<TelemetryService>().capture(
+            "jetbrains_fast_apply",
+            mapOf("hit" to hit, "hits" to hits, "attempts" to attempts)
+        )
+    }
+
     private fun notifyStreamStarted() {
         sendApplyStateUpdate(ApplyStateStatus.STREAMING)
     }
 
     private fun notifyStreamClosed(numDiffs: Int? = 0) {
         sendApplyStateUpdate(ApplyStateStatus.CLOSED, numDiffs)
+        completion.complete(Unit)
     }
 
     private fun sendApplyStateUpdate(
@@ -81,38 +126,8 @@ class ApplyToFileHandler(
     }
 
     private suspend fun fetchApplyLLMConfig(): Any? {
-        return try {
-            suspendCancellableCoroutine { continuation ->
-                continuePluginService.coreMessenger?.request(
-                    "config/getSerializedProfileInfo",
-                    null,
-                    null
-                ) { response ->
-                    try {
-                        val selectedModels = response.castNestedOrNull<Map<String, Any>>(
-                            "content",
-                            "result",
-                            "config",
-                            "selectedModelByRole"
-                        )
-
-                        // If "apply" role model is not found, try "chat" role
-                        val applyCodeBlockModel = selectedModels?.get("apply") ?: selectedModels?.get("chat")
-
-                        if (applyCodeBlockModel != null) {
-                            continuation.resume(applyCodeBlockModel)
-                        } else {
-                            // If neither "apply" nor "chat" models are available, return with exception
-                            continuation.resumeWithException(IllegalStateException("No 'apply' or 'chat' model found in configuration."))
-                        }
-                    } catch (e: Exception) {
-                        continuation.resumeWithException(e)
-                    }
-                }
-            }
-        } catch (_: Exception) {
-            null
-        }
+        // If "apply" role model is not found, use the "chat" role
+        return project.service<ConfigMirror>().getSelectedModel("apply", "chat")
     }
 
     private fun setupAndStreamDiffs(editorUtils: EditorUtils, llm: Any) {
@@ -158,10 +173,11 @@ class ApplyToFileHandler(
             // Ensure end line does not exceed document line count
             val endLine = minOf(totalLines - 1, requestedEndLine + 10)
 
-            val prefix = document.getText(TextRange(0, document.getLineStartOffset(startLine)))
-            val highlighted =
-                document.getText(TextRange(document.getLineStartOffset(startLine), document.getLineEndOffset(endLine)))
-            val suffix = document.getText(TextRange(document.getLineEndOffset(endLine), document.textLength))
+            val highlightedStartOffset = document.getLineStartOffset(startLine)
+            val highlightedEndOffset = document.getLineEndOffset(endLine)
+            val highlighted = document.getText(TextRange(highlightedStartOffset, highlightedEndOffset))
+            val (prefix, suffix) =
+                ContextWindow.getPrefixAndSuffix(project, document, highlightedStartOffset, highlightedEndOffset)
 
             return Quintuple(prefix, highlighted, suffix, startLine, endLine)
         }
@@ -178,8 +194,13 @@ class ApplyToFileHandler(
             editor,
             startLine,
             endLine,
-            {},
-            {},
+            {
+                // All blocks are accepted or rejected, so the document holds the final result of the edit
+                edit?.finish(editor.document.immutableCharSequence)
+                diffStreamService.onHandlerClosed(editor.document)
+                completion.complete(Unit)
+            },
+            { completion.complete(Unit) },
             params.streamId,
             params.toolCallId.toString()
         )
@@ -187,19 +208,24 @@ class ApplyToFileHandler(
 
     companion object {
         /**
-         * Factory method to create and execute a new handler for a single apply-to-file operation
+         * Factory method to create and execute a new handler for a single apply-to-file operation.
+         * The file is edited in the background: an already opened editor is reused, otherwise the diff
+         * is streamed into an off-screen editor without opening or focusing the file.
          */
         suspend fun apply(
             project: Project,
             continuePluginService: ContinuePluginService,
             ide: IDE,
             params: ApplyToFileParams
-        ) {
-            val filepath = URI(params.filepath).path
-            val editorUtils =
-                if (EditorUtils.editorFileExist(filepath)) EditorUtils.getOrOpenEditor(project, filepath)
-                else EditorUtils.getEditorByCreateFile(project, filepath)
+        ): ApplyToFileHandler {
             val diffStreamService = project.getService(DiffStreamService::class.java)
+            // Before the file gets created below, so that rolling back removes it again
+            val edit = params.filepath?.let {
+                CheckpointService.getInstance(project).recordBeforeEdit(UriUtils.uriToFile(it), params.toolCallId)
+            }
+            val virtualFile = params.filepath?.let { VirtualFileManager.getInstance().findFileByUrl(it) }
+                ?: EditorUtils.findOrCreateFile(params.filepath?.let { UriUtils.uriToFile(it).path })
+            val editorUtils = virtualFile?.let { diffStreamService.getOrCreateBackgroundEditor(it) }?.let { EditorUtils(it) }
 
             val handler = ApplyToFileHandler(
                 project,
@@ -207,10 +233,12 @@ class ApplyToFileHandler(
                 ide,
                 params,
                 editorUtils,
-                diffStreamService
+                diffStreamService,
+                edit
             )
 
             handler.handleApplyToFile()
+            return handler
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,119 @@
+package com.github.continuedev.continueintellijextension.`continue`
+
+import com.github.continuedev.continueintellijextension.services.ContinuePluginService
+import com.github.continuedev.continueintellijextension.utils.castNestedOrNull
+import com.intellij.openapi.components.Service
+import com.intellij.openapi.components.service
+import com.intellij.openapi.project.Project
+import kotlinx.coroutines.suspendCancellableCoroutine
+import kotlinx.coroutines.withTimeoutOrNull
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicReference
+import kotlin.coroutines.resume
+
+/**
+ * IDE side copy of the serialized profile info held by the core.
+ *
+ * It's fetched once with `config/getSerializedProfileInfo`, kept up to date from `configUpdate` messages
+ * and dropped whenever the config is reloaded, so reading the selected models doesn't need a round-trip.
+ */
+@Service(Service.Level.PROJECT)
+class ConfigMirror(private val project: Project) {
+    // Same shape as the `configUpdate` payload: { result: { config, errors, ... }, profileId, ... }
+    @Volatile
+    private var profileInfo: Map<*, *>? = null
+
+    private val pendingFetch = AtomicReference<CompletableFuture<Map<*, *>?>?>(null)
+
+    // Bumped on every update and invalidation so that a slow fetch can't overwrite newer state
+    private val generation = AtomicInteger(0)
+
+    fun update(profileInfo: Any?) {
+        generation.incrementAndGet()
+        this.profileInfo = profileInfo as? Map<*, *>
+    }
+
+    fun invalidate() {
+        generation.incrementAndGet()
+        profileInfo = null
+    }
+
+    /**
+     * Returns the selected model for [role], falling back to the given roles in order
+     */
+    suspend fun getSelectedModel(role: String, vararg fallbackRoles: String): Map<*, *>? {
+        val selectedModels = awaitProfileInfo()
+            .castNestedOrNull<Map<*, *>>("result", "config", "selectedModelByRole") ?: return null
+
+        return (listOf(role) + fallbackRoles).firstNotNullOfOrNull { selectedModels[it] as? Map<*, *> }
+    }
+
+    /**
+     * Returns the titles of the models for the given roles, in role order and without duplicates.
+     * Blocks for at most [timeoutMs] if the config hasn't been mirrored yet.
+     */
+    fun getModelTitles(vararg roles: String, timeoutMs: Long): List<String> {
+        val modelsByRole = getProfileInfo(timeoutMs)
+            .castNestedOrNull<Map<*, *>>("result", "config", "modelsByRole") ?: return emptyList()
+
+        return roles.flatMap { role ->
+            modelsByRole.castNestedOrNull<List<*>>(role)?.mapNotNull { it.castNestedOrNull<String>("title") }
+                ?: emptyList()
+        }.distinct()
+    }
+
+    private fun getProfileInfo(timeoutMs: Long): Map<*, *>? {
+        profileInfo?.let { return it }
+
+        return try {
+            fetchProfileInfo().get(timeoutMs, TimeUnit.MILLISECONDS)
+        } catch (e: Exception) {
+            null
+        }
+    }
+
+    private suspend fun awaitProfileInfo(): Map<*, *>? {
+        profileInfo?.let { return it }
+
+        val future = fetchProfileInfo()
+        return withTimeoutOrNull(FETCH_TIMEOUT_MS) {
+            suspendCancellableCoroutine { continuation ->
+                future.whenComplete { result, _ -> continuation.resume(result) }
+            }
+        }
+    }
+
+    private fun fetchProfileInfo(): CompletableFuture<Map<*, *>?> {
+        pendingFetch.get()?.let { return it }
+
+        val future = CompletableFuture<Map<*, *>?>()
+        if (!pendingFetch.compareAndSet(null, future)) {
+            return pendingFetch.get() ?: fetchProfileInfo()
+        }
+
+        val coreMessenger = project.service<ContinuePluginService>().coreMessenger
+        if (coreMessenger == null) {
+            pendingFetch.set(null)
+            future.complete(null)
+            return future
+        }
+
+        val requestGeneration = generation.get()
+        coreMessenger.request("config/getSerializedProfileInfo", null, null) { response ->
+            val content = response.castNestedOrNull<Map<*, *>>("content")
+            if (content != null && generation.compareAndSet(requestGeneration, requestGeneration + 1)) {
+                profileInfo = content
+            }
+
+            pendingFetch.set(null)
+            future.complete(profileInfo ?: content)
+        }
+        return future
+    }
+
+    companion object {
+        private const val FETCH_TIMEOUT_MS = 10_000L
+    }
+}
@@ -14,6 +14,7 @@ import java.nio.charset.StandardCharsets
 import java.nio.file.Files
 import java.nio.file.Paths
 import java.nio.file.attribute.PosixFilePermission
+import java.util.concurrent.ConcurrentHashMap
 import kotlinx.coroutines.*
 
 class CoreMessenger(
@@ -27,6 +28,7 @@ class CoreMessenger(
     private var process: Process? = null
     private val gson = Gson()
     private val responseListeners = mutableMapOf<String, (Any?) -> Unit>()
+    private val rawResponseListeners = ConcurrentHashMap<String, (String) -> Unit>()
     private val useTcp: Boolean = System.getenv("USE_TCP")?.toBoolean() ?: false
 
     private fun write(message: String) {
@@ -43,10 +45,43 @@ class CoreMessenger(
         val message =
             gson.toJson(mapOf("messageId" to id, "messageType" to messageType, "data" to data))
         responseListeners[id] = onResponse
+
+        // Covers reloads from the webview and from AsyncFileSaveListener, a configUpdate follows once done
+        if (messageType == "config/reload") {
+            project.service<ConfigMirror>().invalidate()
+        }
+
         write(message)
     }
 
+    /**
+     * Forwards an already serialized message and hands the responses back unparsed, for messages that are
+     * only relayed between the webview and the core
+     */
+    fun requestRaw(json: String, messageType: String, messageId: String, onResponse: (String) -> Unit) {
+        rawResponseListeners[messageId] = onResponse
+
+        if (messageType == "config/reload") {
+            project.service<ConfigMirror>().invalidate()
+        }
+
+        write(json)
+    }
+
     private fun handleMessage(json: String) {
+        // Relayed messages are only scanned for their header, all others are only parsed by Gson
+        val rawListener = if (rawResponseListeners.isEmpty()) null else {
+            MessageHeader.parseMessageId(json)?.let { rawResponseListeners[it] }
+        }
+        if (rawListener != null) {
+            rawListener(json)
+            val header = MessageHeader.parse(json)
+            if (header.done) {
+                rawResponseListeners.remove(header.messageId)
+            }
+            return
+        }
+
         val responseMap = gson.fromJson(json, Map::class.java)
         val messageId = responseMap["messageId"].toString()
         val messageType = responseMap["messageType"].toString()
@@ -63,6 +98,10 @@ class CoreMessenger(
             }
         }
 
+        if (messageType == "configUpdate") {
+            project.service<ConfigMirror>().update(data)
+        }
+
         // Forward to webview
         if (MessageTypes.PASS_THROUGH_TO_WEBVIEW.contains(messageType)) {
             val continuePluginService = project.service<ContinuePluginService>()
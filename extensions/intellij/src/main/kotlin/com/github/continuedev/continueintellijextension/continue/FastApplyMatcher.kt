@@ -0,0 +1,139 @@
+package com.github.continuedev.continueintellijextension.`continue`
+
+import com.github.continuedev.continueintellijextension.editor.DiffLine
+import com.github.continuedev.continueintellijextension.editor.DiffLineType
+import com.intellij.util.diff.Diff
+import com.intellij.util.diff.FilesTooBigForDiffException
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.math.max
+
+/**
+ * Deterministic apply for code blocks that replace a clearly identifiable region of a file.
+ *
+ * The region is located by anchoring the first and last lines of the suggested block in the document,
+ * then the line diff between the region and the block is computed locally. If the region can't be
+ * located with confidence the caller falls back to the model driven `streamDiffLines`.
+ */
+object FastApplyMatcher {
+    data class Match(val startLine: Int, val endLine: Int, val diffLines: List<DiffLine>)
+
+    private const val MAX_BLOCK_LINES = 2000
+
+    // Share of unchanged lines required for the block to count as a replacement of the region
+    private const val MIN_SIMILARITY = 0.5
+
+    // Blocks that elide unchanged code ("// ... existing code ...") have to be merged by the model
+    private val LAZY_BLOCK_MARKER =
+        Regex("""^\s*(//|#|/\*|\*|<!--|--)\s*\.\.\.|existing code""", RegexOption.IGNORE_CASE)
+
+    private val attempts = AtomicInteger(0)
+    private val hits = AtomicInteger(0)
+
+    fun match(documentLines: List<String>, suggestion: String): Match? {
+        val suggestionLines = suggestion.lines().dropWhile { it.isBlank() }.dropLastWhile { it.isBlank() }
+        if (suggestionLines.isEmpty() || suggestionLines.size > MAX_BLOCK_LINES) {
+            return null
+        }
+
+        if (suggestionLines.any { LAZY_BLOCK_MARKER.containsMatchIn(it) }) {
+            return null
+        }
+
+        val firstLine = suggestionLines.first().trim()
+        val startLine = documentLines.indices.singleOrNull { documentLines[it].trim() == firstLine } ?: return null
+        val indentation = documentLines[startLine].takeWhile { it.isWhitespace() }
+        val blockLines = reindent(suggestionLines, indentation)
+
+        if (blockLines.size == 1) {
+            return diffRegion(documentLines, startLine, startLine, blockLines)
+        }
+
+        // The closing line of the region sits at the same indentation as its first line. Try the nearest
+        // one first (a single block), then the farthest one (a block spanning several siblings).
+        val lastLine = blockLines.last().trim()
+        val endCandidates = (startLine + 1 until documentLines.size).filter {
+            documentLines[it].trim() == lastLine && documentLines[it].takeWhile { c -> c.isWhitespace() } == indentation
+        }
+        val nearest = endCandidates.firstOrNull() ?: return null
+        diffRegion(documentLines, startLine, nearest, blockLines)?.let { return it }
+
+        // A wider span may cover siblings the block doesn't mention. Changing any of the region's lines could
+        // overwrite such a sibling with a new one, so only pure insertions are applied here
+        val farthest = endCandidates.last()
+        if (farthest == nearest) {
+            return null
+        }
+        return diffRegion(documentLines, startLine, farthest, blockLines, insertionsOnly = true)
+    }
+
+    /**
+     * Records the outcome of a fast apply attempt and returns the running (hits, attempts) totals
+     */
+    fun recordResult(hit: Boolean): Pair<Int, Int> {
+        val totalHits = if (hit) hits.incrementAndGet() else hits.get()
+        return Pair(totalHits, attempts.incrementAndGet())
+    }
+
+    /**
+     * Code blocks in chat are usually dedented, shift them to the indentation of the matched region
+     */
+    private fun reindent(lines: List<String>, indentation: String): List<String> {
+        val blockIndentation = lines.first().takeWhile { it.isWhitespace() }
+        if (blockIndentation == indentation || !indentation.startsWith(blockIndentation)) {
+            return lines
+        }
+
+        val extraIndentation = indentation.substring(blockIndentation.length)
+        return lines.map { if (it.isBlank()) it else extraIndentation + it }
+    }
+
+    private fun diffRegion(
+        documentLines: List<String>,
+        startLine: Int,
+        endLine: Int,
+        suggestionLines: List<String>,
+        insertionsOnly: Boolean = false
+    ): Match? {
+        val before = documentLines.subList(startLine, endLine + 1).toTypedArray()
+        val after = suggestionLines.toTypedArray()
+
+        var change = try {
+            Diff.buildChanges(before, after)
+        } catch (e: FilesTooBigForDiffException) {
+            return null
+        }
+
+        val diffLines = mutableListOf<DiffLine>()
+        var unchangedLines = before.size
+        var beforeIndex = 0
+
+        while (change != null) {
+            if (insertionsOnly && change.deleted > 0) {
+                return null
+            }
+            while (beforeIndex < change.line0) {
+                diffLines.add(DiffLine(DiffLineType.SAME, before[beforeIndex++]))
+            }
+            for (i in 0 until change.deleted) {
+                diffLines.add(DiffLine(DiffLineType.OLD, before[change.line0 + i]))
+            }
+            for (i in 0 until change.inserted) {
+                diffLines.add(DiffLine(DiffLineType.NEW, after[change.line1 + i]))
+            }
+
+            beforeIndex = change.line0 + change.deleted
+            unchangedLines -= change.deleted
+            change = change.link
+        }
+
+        while (beforeIndex < before.size) {
+            diffLines.add(DiffLine(DiffLineType.SAME, before[beforeIndex++]))
+        }
+
+        if (unchangedLines.toDouble() / max(before.size, after.size) < MIN_SIMILARITY) {
+            return null
+        }
+
+        return Match(startLine, endLine, diffLines)
+    }
+}
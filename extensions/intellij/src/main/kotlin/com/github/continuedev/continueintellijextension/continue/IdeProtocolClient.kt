@@ -4,6 +4,7 @@ import com.github.continuedev.continueintellijextension.*
 import com.github.continuedev.continueintellijextension.activities.ContinuePluginDisposable
 import com.github.continuedev.continueintellijextension.activities.showTutorial
 import com.github.continuedev.continueintellijextension.auth.ContinueAuthService
+import com.github.continuedev.continueintellijextension.checkpoint.CheckpointService
 import com.github.continuedev.continueintellijextension.editor.DiffStreamService
 import com.github.continuedev.continueintellijextension.editor.EditorUtils
 import com.github.continuedev.continueintellijextension.protocol.*
@@ -14,7 +15,9 @@ import com.intellij.openapi.application.ApplicationManager
 import com.intellij.openapi.command.WriteCommandAction
 import com.intellij.openapi.components.ServiceManager
 import com.intellij.openapi.components.service
+import com.intellij.openapi.editor.Document
 import com.intellij.openapi.editor.SelectionModel
+import com.intellij.openapi.fileEditor.FileDocumentManager
 import com.intellij.openapi.fileEditor.FileEditorManager
 import com.intellij.openapi.project.DumbAware
 import com.intellij.openapi.project.Project
@@ -173,6 +176,17 @@ class IdeProtocolClient(
                         respond(null)
                     }
 
+                    "revertToolCall" -> {
+                        val params = Gson().fromJson(
+                            dataElement.toString(),
+                            RevertToolCallParams::class.java
+                        )
+                        // The webview falls back to revertFile for the paths that couldn't be reverted
+                        val conflicts = CheckpointService.getInstance(project)
+                            .revertToolCall(params.toolCallId, params.filepath?.let { UriUtils.uriToFile(it) })
+                        respond(conflicts)
+                    }
+
                     "readFile" -> {
                         val params = Gson().fromJson(
                             dataElement.toString(),
@@ -322,7 +336,7 @@ class IdeProtocolClient(
                             dataElement.toString(),
                             WriteFileParams::class.java
                         )
-                        ide.writeFile(params.path, params.contents)
+                        ide.writeFile(params.path, params.contents, params.toolCallId)
                         respond(null)
                     }
 
@@ -450,12 +464,10 @@ class IdeProtocolClient(
                             dataElement.toString(),
                             AcceptOrRejectDiffPayload::class.java
                         )
-                        val filepath = params.filepath;
-
-                        val editor = EditorUtils.getOrOpenEditor(project, filepath)?.editor
-
-                        if (editor != null) {
-                            diffStreamService.accept(editor)
+                        // Resolve the document without opening the file, it may have been applied in the background
+                        val document = findDocument(params.filepath)
+                        if (document != null) {
+                            diffStreamService.accept(document)
                         }
 
                         respond(null)
@@ -466,11 +478,9 @@ class IdeProtocolClient(
                             dataElement.toString(),
                             AcceptOrRejectDiffPayload::class.java
                         )
-                        val filepath = params.filepath;
-
-                        val editor = EditorUtils.getOrOpenEditor(project, filepath)?.editor
-                        if (editor != null) {
-                            diffStreamService.reject(editor)
+                        val document = findDocument(params.filepath)
+                        if (document != null) {
+                            diffStreamService.reject(document)
                         }
                         respond(null)
 
@@ -482,8 +492,7 @@ class IdeProtocolClient(
                             ApplyToFileParams::class.java
                         )
 
-                        ApplyToFileHandler.apply(
-                            project,
+                        project.service<ApplyScheduler>().schedule(
                             continuePluginService,
                             ide,
                             params
@@ -519,6 +528,13 @@ class IdeProtocolClient(
         }
     }
 
+    private fun findDocument(filepath: String): Document? {
+        val virtualFile = VirtualFileManager.getInstance().findFileByUrl(filepath) ?: return null
+        return ApplicationManager.getApplication().runReadAction<Document?> {
+            FileDocumentManager.getInstance().getDocument(virtualFile)
+        }
+    }
+
     fun sendHighlightedCode(edit: Boolean = false) {
         val editor = EditorUtils.getEditor(project)
         val rif = editor?.getHighlightedRIF() ?: return
@@ -1,6 +1,7 @@
 package com.github.continuedev.continueintellijextension.`continue`
 
 import com.github.continuedev.continueintellijextension.*
+import com.github.continuedev.continueintellijextension.checkpoint.CheckpointService
 import com.github.continuedev.continueintellijextension.constants.ContinueConstants
 import com.github.continuedev.continueintellijextension.constants.getContinueGlobalPath
 import com.github.continuedev.continueintellijextension.services.ContinueExtensionSettings
@@ -186,10 +187,14 @@ class IntelliJIDE(
         return file.exists()
     }
 
-    override suspend fun writeFile(path: String, contents: String) {
+    override suspend fun writeFile(path: String, contents: String, toolCallId: String?) {
         val file = UriUtils.uriToFile(path)
+        val edit = withContext(Dispatchers.IO) {
+            CheckpointService.getInstance(project).recordBeforeEdit(file, toolCallId)
+        }
         file.parentFile?.mkdirs()
         file.writeText(contents)
+        edit?.finish(contents)
     }
 
     override suspend fun showVirtualFile(title: String, contents: String) {
@@ -314,6 +319,11 @@ class IntelliJIDE(
     }
 
     override suspend fun showAgentDiff(filepath: String, timestamp: Long) {
+        val checkpointContent = CheckpointService.getInstance(project).contentAt(timestamp, UriUtils.uriToFile(filepath))
+        if (checkpointContent != null) {
+            showHistoricalDiff(filepath, checkpointContent, readFile(filepath), timestamp)
+            return
+        }
 
         try {
             // 获取文件的VirtualFile对象
@@ -718,6 +728,12 @@ class IntelliJIDE(
     }
 
     override suspend fun rollbackToCheckpoint(checkpointId: String) {
+        // Checkpoints older than the checkpoint store are only found in local history
+        val timestamp = checkpointId.toLongOrNull()
+        if (timestamp != null && CheckpointService.getInstance(project).restore(timestamp)) {
+            return
+        }
+
         return withContext(Dispatchers.IO) {
             try {
                 ApplicationManager.getApplication().invokeAndWait {
@@ -794,6 +810,10 @@ class IntelliJIDE(
 
 
     override suspend fun revertFile(filepath: String, timestamp: Long) {
+        if (CheckpointService.getInstance(project).restore(timestamp, UriUtils.uriToFile(filepath))) {
+            return
+        }
+
         return withContext(Dispatchers.IO) {
             try {
                 ApplicationManager.getApplication().invokeAndWait {
@@ -0,0 +1,73 @@
+package com.github.continuedev.continueintellijextension.`continue`
+
+import com.google.gson.stream.JsonReader
+import com.google.gson.stream.JsonToken
+import java.io.StringReader
+
+/**
+ * The fields needed to route a message between the webview and the core, read without materializing the
+ * payload: `messageType`, `messageId` and the `done` flag of a response.
+ */
+data class MessageHeader(val messageType: String?, val messageId: String?, val done: Boolean) {
+    companion object {
+        fun parse(json: String): MessageHeader {
+            var messageType: String? = null
+            var messageId: String? = null
+            var done = false
+
+            JsonReader(StringReader(json)).use { reader ->
+                reader.beginObject()
+                while (reader.hasNext()) {
+                    when (reader.nextName()) {
+                        "messageType" -> messageType = reader.nextStringOrNull()
+                        "messageId" -> messageId = reader.nextStringOrNull()
+                        "data" -> done = reader.readDone()
+                        else -> reader.skipValue()
+                    }
+                }
+            }
+
+            return MessageHeader(messageType, messageId, done)
+        }
+
+        /**
+         * Reads only up to the `messageId`, which comes before the payload in the messages of the core, so
+         * routing a message that isn't relayed costs next to nothing
+         */
+        fun parseMessageId(json: String): String? {
+            JsonReader(StringReader(json)).use { reader ->
+                reader.beginObject()
+                while (reader.hasNext()) {
+                    if (reader.nextName() == "messageId") {
+                        return reader.nextStringOrNull()
+                    }
+                    reader.skipValue()
+                }
+            }
+            return null
+        }
+
+        private fun JsonReader.nextStringOrNull(): String? {
+            return if (peek() == JsonToken.STRING) nextString() else null.also { skipValue() }
+        }
+
+        private fun JsonReader.readDone(): Boolean {
+            if (peek() != JsonToken.BEGIN_OBJECT) {
+                skipValue()
+                return false
+            }
+
+            var done = false
+            beginObject()
+            while (hasNext()) {
+                if (nextName() == "done" && peek() == JsonToken.BOOLEAN) {
+                    done = nextBoolean()
+                } else {
+                    skipValue()
+                }
+            }
+            endObject()
+            return done
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.github.continuedev.continueintellijextension.editor
+
+import com.github.continuedev.continueintellijextension.services.ContinueExtensionSettings
+import com.intellij.openapi.application.ApplicationManager
+import com.intellij.openapi.editor.Document
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.util.TextRange
+import com.intellij.psi.PsiDocumentManager
+import com.intellij.psi.PsiNameIdentifierOwner
+import com.intellij.psi.util.PsiTreeUtil
+
+/**
+ * Bounded prefix/suffix around an edited range, used as context for `streamDiffLines`.
+ *
+ * The core truncates prefix and suffix to the model's context anyway, so instead of the whole document
+ * only a window of at most `maxContextTokens` is sent. The window is widened to the outermost enclosing
+ * method or class that fits the budget, otherwise it's cut at the nearest line boundaries.
+ */
+object ContextWindow {
+    // Rough estimate, good enough to bound the payload size
+    private const val CHARS_PER_TOKEN = 4
+
+    fun getPrefixAndSuffix(
+        project: Project?,
+        document: Document,
+        startOffset: Int,
+        endOffset: Int
+    ): Pair<String, String> {
+        val maxContextTokens = ContinueExtensionSettings.instance.continueState.maxContextTokens
+        return ApplicationManager.getApplication().runReadAction<Pair<String, String>> {
+            val text = document.immutableCharSequence
+            val boundaries = project?.let { findEnclosingRanges(it, document, startOffset, endOffset) } ?: emptyList()
+            val window = getWindow(text, startOffset, endOffset, maxContextTokens * CHARS_PER_TOKEN, boundaries)
+
+            Pair(
+                text.subSequence(window.startOffset, startOffset).toString(),
+                text.subSequence(endOffset, window.endOffset).toString()
+            )
+        }
+    }
+
+    /**
+     * Picks the window around [startOffset, endOffset): the largest of [boundaries] (ordered from innermost
+     * to outermost) whose prefix and suffix each fit half the budget, or a line aligned cut of the same size.
+     */
+    fun getWindow(
+        text: CharSequence,
+        startOffset: Int,
+        endOffset: Int,
+        budgetChars: Int,
+        boundaries: List<TextRange>
+    ): TextRange {
+        val halfBudget = budgetChars / 2
+        if (startOffset <= halfBudget && text.length - endOffset <= halfBudget) {
+            return TextRange(0, text.length)
+        }
+
+        val enclosing = boundaries
+            .filter { it.startOffset <= startOffset && it.endOffset >= endOffset }
+            .lastOrNull { startOffset - it.startOffset <= halfBudget && it.endOffset - endOffset <= halfBudget }
+        if (enclosing != null) {
+            return TextRange(lineStart(text, enclosing.startOffset), lineEnd(text, enclosing.endOffset))
+        }
+
+        // Cut inside the budget so the window never grows past it
+        val windowStart = if (startOffset <= halfBudget) 0 else nextLineStart(text, startOffset - halfBudget, startOffset)
+        val windowEnd =
+            if (text.length - endOffset <= halfBudget) text.length else previousLineEnd(text, endOffset + halfBudget, endOffset)
+        return TextRange(windowStart, windowEnd)
+    }
+
+    private fun findEnclosingRanges(
+        project: Project,
+        document: Document,
+        startOffset: Int,
+        endOffset: Int
+    ): List<TextRange> {
+        val psiDocumentManager = PsiDocumentManager.getInstance(project)
+        if (!psiDocumentManager.isCommitted(document)) {
+            return emptyList()
+        }
+
+        val psiFile = psiDocumentManager.getPsiFile(document) ?: return emptyList()
+        val element = psiFile.findElementAt(startOffset) ?: return emptyList()
+
+        // Named declarations cover classes, methods and functions across languages
+        return generateSequence(PsiTreeUtil.getParentOfType(element, PsiNameIdentifierOwner::class.java)) {
+            PsiTreeUtil.getParentOfType(it, PsiNameIdentifierOwner::class.java)
+        }
+            .map { it.textRange }
+            .filter { it.endOffset >= endOffset }
+            .toList()
+    }
+
+    private fun lineStart(text: CharSequence, offset: Int): Int {
+        var i = offset
+        while (i > 0 && text[i - 1] != '\n') i--
+        return i
+    }
+
+    private fun lineEnd(text: CharSequence, offset: Int): Int {
+        var i = offset
+        while (i < text.length && text[i] != '\n') i++
+        return i
+    }
+
+    private fun nextLineStart(text: CharSequence, offset: Int, limit: Int): Int {
+        var i = offset
+        while (i < limit && text[i - 1] != '\n') i++
+        return i
+    }
+
+    private fun previousLineEnd(text: CharSequence, offset: Int, limit: Int): Int {
+        var i = offset
+        while (i > limit && text[i] != '\n') i--
+        return i
+    }
+}
@@ -2,8 +2,10 @@ package com.github.continuedev.continueintellijextension.editor
 
 import com.github.continuedev.continueintellijextension.ApplyState
 import com.github.continuedev.continueintellijextension.ApplyStateStatus
+import com.github.continuedev.continueintellijextension.LineRange
 import com.github.continuedev.continueintellijextension.StreamDiffLinesPayload
 import com.github.continuedev.continueintellijextension.services.ContinuePluginService
+import com.github.continuedev.continueintellijextension.utils.uuid
 import com.intellij.openapi.application.ApplicationManager
 import com.intellij.openapi.command.WriteCommandAction
 import com.intellij.openapi.command.undo.UndoManager
@@ -15,6 +17,10 @@ import com.intellij.openapi.fileEditor.FileDocumentManager
 import com.intellij.openapi.fileEditor.FileEditorManager
 import com.intellij.openapi.fileEditor.TextEditor
 import com.intellij.openapi.project.Project
+import com.intellij.util.concurrency.AppExecutorUtil
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
 import kotlin.math.max
 import kotlin.math.min
 
@@ -23,9 +29,11 @@ enum class DiffLineType {
     SAME, NEW, OLD
 }
 
+data class DiffLine(val type: DiffLineType, val text: String)
+
 class DiffStreamHandler(
     private val project: Project,
-    private val editor: Editor,
+    editor: Editor,
     private val startLine: Int,
     private val endLine: Int,
     private val onClose: () -> Unit,
@@ -37,16 +45,34 @@ class DiffStreamHandler(
         var index: Int, var highlighter: RangeHighlighter? = null, var diffBlock: VerticalDiffBlock? = null
     )
 
+    // May be an off-screen editor until the user opens the file, see attachEditor()
+    private var editor: Editor = editor
     private val diffBlocks: MutableList<VerticalDiffBlock> = mutableListOf()
     private var curLine = CurLineState(startLine)
     private var isRunning: Boolean = false
     private var hasAcceptedOrRejectedBlock: Boolean = false
+
+    // Whether the user rejected all or part of the diff, so that callers only keep results that were accepted
+    var hasRejectedChanges: Boolean = false
+        private set
     private val unfinishedHighlighters: MutableList<RangeHighlighter> = mutableListOf()
+
+    // Diff lines arrive on the core messenger thread and are applied on the EDT in batches
+    private val pendingDiffLines = ConcurrentLinkedQueue<DiffLine>()
+    private val isFlushScheduled = AtomicBoolean(false)
+
+    // Every line streamed by the core, so that callers can replay the result with applyDiffLinesToEditor
+    private val receivedDiffLines = mutableListOf<DiffLine>()
+
+    private val changedLineRanges: MutableList<LineRange> = mutableListOf()
     private val continuePluginService = ServiceManager.getService(project, ContinuePluginService::class.java)
     private val virtualFile = FileDocumentManager.getInstance().getFile(editor.document)
 
-    // 保存原始文档状态用于完全撤销
-    private val originalDocumentText: String = editor.document.text
+    // 保存原始文档状态用于完全撤销。Document 的不可变字符序列是共享结构的快照，获取成本为 O(1)，不会复制整个文档
+    private val originalDocumentSnapshot: CharSequence = editor.document.immutableCharSequence
+
+    // All streamed edits of this handler share one command group, so they collapse into a single undo step
+    private val undoGroupId: String = "continue.diffStream.${streamId ?: uuid()}"
 
     init {
         initUnfinishedRangeHighlights()
@@ -58,10 +84,13 @@ class DiffStreamHandler(
         }
 
         val editorUtils = EditorUtils(editor)
-        var currentFileContent = editorUtils.readFileWithLineNumbers()
 
-        if (isRejected == true){
-            currentFileContent = "用户放弃了该文件的修改，请不要对该文件再进行修改。"
+        // The numbered file content is only rendered once the stream is closed, which is when the webview
+        // hands it to the tool call output. Intermediate updates carry the changed line ranges and a hash.
+        val currentFileContent = when {
+            isRejected == true -> "用户放弃了该文件的修改，请不要对该文件再进行修改。"
+            status == ApplyStateStatus.CLOSED -> editorUtils.readFileWithLineNumbers()
+            else -> null
         }
 
         // Define a single payload and use it for sending
@@ -71,12 +100,32 @@ class DiffStreamHandler(
             numDiffs = diffBlocks.size,
             filepath = virtualFile?.url,
             fileContent = currentFileContent,
-            toolCallId = toolCallId?.toString()
+            toolCallId = toolCallId?.toString(),
+            changedRanges = drainChangedLineRanges(),
+            contentHash = editorUtils.getContentHash()
         )
 
         continuePluginService.sendToWebview("updateApplyState", payload)
     }
 
+    private fun markLinesChanged(startLine: Int, endLine: Int) {
+        synchronized(changedLineRanges) {
+            val last = changedLineRanges.lastOrNull()
+            if (last != null && startLine <= last.endLine + 1 && endLine >= last.startLine - 1) {
+                changedLineRanges[changedLineRanges.size - 1] =
+                    LineRange(min(last.startLine, startLine), max(last.endLine, endLine))
+            } else {
+                changedLineRanges.add(LineRange(startLine, endLine))
+            }
+        }
+    }
+
+    private fun drainChangedLineRanges(): List<LineRange> {
+        synchronized(changedLineRanges) {
+            return changedLineRanges.toList().also { changedLineRanges.clear() }
+        }
+    }
+
     fun acceptAll() {
         ApplicationManager.getApplication().invokeLater {
             diffBlocks.toList().forEach { it.handleAccept() }
@@ -84,6 +133,7 @@ class DiffStreamHandler(
     }
 
     fun rejectAll() {
+        hasRejectedChanges = true
         // The ideal action here is to undo all changes we made to return the user's edit buffer to the state prior
         // to our changes. However, if the user has accepted or rejected one or more diff blocks, there isn't a simple
         // way to undo our changes without also undoing the diff that the user accepted or rejected.
@@ -108,10 +158,12 @@ class DiffStreamHandler(
 
     private fun restoreOriginalDocument() {
         // 完全恢复到原始文档状态
-        WriteCommandAction.runWriteCommandAction(project) {
-            // 直接替换整个文档内容为原始内容
-            editor.document.setText(originalDocumentText)
-        }
+        WriteCommandAction.writeCommandAction(project)
+            .withName(REJECT_COMMAND_NAME)
+            .run<RuntimeException> {
+                // 直接替换整个文档内容为原始快照
+                editor.document.setText(originalDocumentSnapshot)
+            }
     }
 
     fun streamDiffLinesToEditor(
@@ -152,11 +204,49 @@ class DiffStreamHandler(
         }
     }
 
-    private fun initUnfinishedRangeHighlights() {
+    /**
+     * Moves the diff UI of this stream to another editor of the same document. Edits are made on the
+     * document, so only highlighters, inlays and buttons have to follow the editor.
+     */
+    fun attachEditor(newEditor: Editor) {
+        ApplicationManager.getApplication().invokeLater {
+            if (newEditor === editor || newEditor.document != editor.document) {
+                return@invokeLater
+            }
+
+            val unfinishedLines = unfinishedHighlighters.filter { it.isValid }
+                .map { editor.document.getLineNumber(it.startOffset) }
+            cleanupProgressHighlighters()
+            unfinishedHighlighters.clear()
+            curLine.highlighter = null
+
+            editor = newEditor
+
+            if (isRunning) {
+                initUnfinishedRangeHighlights(unfinishedLines)
+                updateProgressHighlighters(0)
+            }
+            diffBlocks.forEach { it.moveToEditor(newEditor) }
+        }
+    }
+
+    /**
+     * Applies diff lines that were computed locally instead of streamed by the core,
+     * going through the same batching and finishing logic as streamed lines
+     */
+    fun applyDiffLinesToEditor(diffLines: List<DiffLine>) {
+        isRunning = true
+        sendUpdate(ApplyStateStatus.STREAMING)
+
+        pendingDiffLines.addAll(diffLines)
+        handleFinishedResponse()
+    }
+
+    private fun initUnfinishedRangeHighlights(lines: Iterable<Int> = startLine..endLine) {
         val editorUtils = EditorUtils(editor)
         val unfinishedKey = editorUtils.createTextAttributesKey("CONTINUE_DIFF_UNFINISHED_LINE", 0x20888888)
 
-        for (i in startLine..endLine) {
+        for (i in lines) {
             val highlighter = editor.markupModel.addLineHighlighter(
                 unfinishedKey, min(
                     i, editor.document.lineCount - 1
@@ -173,8 +263,6 @@ class DiffStreamHandler(
                 DiffLineType.NEW -> handleNewLine(text)
                 DiffLineType.OLD -> handleOldLine()
             }
-
-            updateProgressHighlighters(type)
         } catch (e: Exception) {
             println(
                 "Error handling diff line - " +
@@ -190,10 +278,15 @@ class DiffStreamHandler(
         hasAcceptedOrRejectedBlock = true
 
         diffBlocks.remove(diffBlock)
+        markLinesChanged(
+            diffBlock.startLine,
+            diffBlock.startLine + max(diffBlock.addedLines.size, diffBlock.deletedLines.size)
+        )
 
         if (didAccept) {
             updatePositionsOnAccept(diffBlock.startLine)
         } else {
+            hasRejectedChanges = true
             updatePositionsOnReject(diffBlock.startLine, diffBlock.addedLines.size, diffBlock.deletedLines.size)
         }
 
@@ -244,7 +337,7 @@ class DiffStreamHandler(
         curLine.diffBlock!!.deleteLineAt(curLine.index)
     }
 
-    private fun updateProgressHighlighters(type: DiffLineType) {
+    private fun updateProgressHighlighters(numFinishedLines: Int) {
         val editorUtils = EditorUtils(editor)
         val curLineKey = editorUtils.createTextAttributesKey("CONTINUE_DIFF_CURRENT_LINE", 0x40888888)
 
@@ -254,10 +347,13 @@ class DiffStreamHandler(
             curLineKey, min(curLine.index, max(0, editor.document.lineCount - 1)), HighlighterLayer.LAST
         )
 
-        editorUtils.scrollToLine(curLine.index)
+        // Off-screen editors have nothing to scroll
+        if (editor.component.isShowing) {
+            editorUtils.scrollToLine(curLine.index)
+        }
 
-        // Remove the unfinished lines highlighter
-        if (type != DiffLineType.OLD && unfinishedHighlighters.isNotEmpty()) {
+        // Remove the unfinished lines highlighters for every line that has been streamed in this batch
+        repeat(min(numFinishedLines, unfinishedHighlighters.size)) {
             editor.markupModel.removeHighlighter(unfinishedHighlighters.removeAt(0))
         }
     }
@@ -285,6 +381,7 @@ class DiffStreamHandler(
         diffBlocks.forEach { it.clearEditorUI() }
 
         // Clear state vars
+        pendingDiffLines.clear()
         diffBlocks.clear()
         curLine = CurLineState(startLine)
         isRunning = false
@@ -301,20 +398,21 @@ class DiffStreamHandler(
 
         WriteCommandAction.runWriteCommandAction(project) {
             val undoManager = UndoManager.getInstance(project)
-            val fileEditor = FileEditorManager.getInstance(project).getSelectedEditor(virtualFile) as TextEditor
+            val fileEditor = FileEditorManager.getInstance(project).getSelectedEditor(virtualFile) as? TextEditor
+                ?: return@runWriteCommandAction
 
+            // Every streamed batch was recorded under the same group id, so one undo reverts the whole stream
             if (undoManager.isUndoAvailable(fileEditor)) {
-                val numChanges = diffBlocks.sumOf { it.deletedLines.size + it.addedLines.size }
-
-                repeat(numChanges) {
-                    undoManager.undo(fileEditor)
-                }
+                undoManager.undo(fileEditor)
             }
         }
     }
 
     private fun handleFinishedResponse() {
         ApplicationManager.getApplication().invokeLater {
+            // Apply whatever is still buffered before closing the last diff block
+            flushDiffLines(drainAll = true)
+
             // Since we only call onLastDiffLine() when we reach a "same" line, we need to handle the case where
             // the last line in the diff stream is in the middle of a diff block.
             curLine.diffBlock?.onLastDiffLine()
@@ -341,10 +439,63 @@ class DiffStreamHandler(
         val diffLineType = getDiffLineType(data["type"] as String)
         val lineText = data["line"] as String
 
-        ApplicationManager.getApplication().invokeLater {
-            WriteCommandAction.runWriteCommandAction(project) {
-                handleDiffLine(diffLineType, lineText)
+        val diffLine = DiffLine(diffLineType, lineText)
+        synchronized(receivedDiffLines) { receivedDiffLines.add(diffLine) }
+        pendingDiffLines.add(diffLine)
+        scheduleFlush()
+    }
+
+    fun getReceivedDiffLines(): List<DiffLine> {
+        return synchronized(receivedDiffLines) { receivedDiffLines.toList() }
+    }
+
+    /**
+     * Schedules a flush of the buffered diff lines on the EDT, coalescing all lines
+     * that arrive within one frame into a single write command.
+     */
+    private fun scheduleFlush() {
+        if (!isFlushScheduled.compareAndSet(false, true)) {
+            return
+        }
+
+        AppExecutorUtil.getAppScheduledExecutorService().schedule({
+            ApplicationManager.getApplication().invokeLater { flushDiffLines() }
+        }, FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS)
+    }
+
+    private fun flushDiffLines(drainAll: Boolean = false) {
+        isFlushScheduled.set(false)
+
+        if (!isRunning) {
+            pendingDiffLines.clear()
+            return
+        }
+
+        do {
+            val batch = mutableListOf<DiffLine>()
+            while (batch.size < MAX_LINES_PER_FLUSH) {
+                batch.add(pendingDiffLines.poll() ?: break)
             }
+
+            if (batch.isEmpty()) {
+                return
+            }
+
+            val batchStartLine = curLine.index
+            WriteCommandAction.writeCommandAction(project)
+                .withName(DIFF_COMMAND_NAME)
+                .withGroupId(undoGroupId)
+                .run<RuntimeException> {
+                    batch.forEach { handleDiffLine(it.type, it.text) }
+                }
+
+            markLinesChanged(batchStartLine, max(batchStartLine, curLine.index))
+            updateProgressHighlighters(batch.count { it.type != DiffLineType.OLD })
+        } while (drainAll)
+
+        // Don't hog the EDT with oversized batches, pick up the remainder on the next frame
+        if (pendingDiffLines.isNotEmpty()) {
+            scheduleFlush()
         }
     }
 
@@ -361,4 +512,15 @@ class DiffStreamHandler(
         sendUpdate(ApplyStateStatus.CLOSED, isRejected)
         resetState()
     }
+
+    companion object {
+        private const val DIFF_COMMAND_NAME = "Continue: Apply Diff"
+
+        private const val REJECT_COMMAND_NAME = "Continue: Reject Diff"
+
+        // Roughly one frame at 60 fps
+        private const val FLUSH_INTERVAL_MS = 16L
+
+        private const val MAX_LINES_PER_FLUSH = 200
+    }
 }
\ No newline at end of file
@@ -1,25 +1,43 @@
 package com.github.continuedev.continueintellijextension.editor
 
+import com.intellij.openapi.Disposable
 import com.intellij.openapi.application.ApplicationManager
+import com.intellij.openapi.application.runReadAction
 import com.intellij.openapi.components.Service
+import com.intellij.openapi.editor.Document
 import com.intellij.openapi.editor.Editor
+import com.intellij.openapi.editor.EditorFactory
 import com.intellij.openapi.fileEditor.FileDocumentManager
+import com.intellij.openapi.fileEditor.FileEditorManager
+import com.intellij.openapi.fileEditor.TextEditor
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.vfs.VirtualFile
+import java.util.concurrent.ConcurrentHashMap
 
 @Service(Service.Level.PROJECT)
-class DiffStreamService {
-    private val handlers = mutableMapOf<Editor, DiffStreamHandler>()
+class DiffStreamService(private val project: Project) : Disposable {
+    // Handlers are keyed by document so that a stream survives switching between an off-screen and a real editor
+    private val handlers = ConcurrentHashMap<Document, DiffStreamHandler>()
+
+    // Editors created for streaming into files that aren't open, released once the user opens the file
+    private val backgroundEditors = ConcurrentHashMap<Document, Editor>()
 
     fun register(handler: DiffStreamHandler, editor: Editor) {
-        if (handlers.containsKey(editor)) {
-            handlers[editor]?.rejectAll()
+        val document = editor.document
+        if (handlers.containsKey(document)) {
+            handlers[document]?.rejectAll()
         }
-        handlers[editor] = handler
+        handlers[document] = handler
         println("Registered handler for editor")
     }
 
     fun reject(editor: Editor) {
-        handlers[editor]?.rejectAll()
-        handlers.remove(editor)
+        reject(editor.document)
+    }
+
+    fun reject(document: Document) {
+        handlers[document]?.rejectAll()
+        handlers.remove(document)
 
         ApplicationManager.getApplication().invokeLater {
             FileDocumentManager.getInstance().saveAllDocuments()
@@ -27,11 +45,92 @@ class DiffStreamService {
     }
 
     fun accept(editor: Editor) {
-        handlers[editor]?.acceptAll()
-        handlers.remove(editor)
+        accept(editor.document)
+    }
+
+    fun accept(document: Document) {
+        handlers[document]?.acceptAll()
+        handlers.remove(document)
 
         ApplicationManager.getApplication().invokeLater {
             FileDocumentManager.getInstance().saveAllDocuments()
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Returns an editor to stream a diff into without opening or focusing the file: the editor of an already
+     * opened tab if there is one, otherwise an off-screen editor for the file's document.
+     */
+    fun getOrCreateBackgroundEditor(file: VirtualFile): Editor? {
+        findOpenedEditor(file)?.let { return it }
+
+        val document = runReadAction { FileDocumentManager.getInstance().getDocument(file) } ?: return null
+        backgroundEditors[document]?.let { return it }
+
+        ApplicationManager.getApplication().invokeAndWait {
+            backgroundEditors.computeIfAbsent(document) {
+                EditorFactory.getInstance().createEditor(document, project, file, false)
+            }
+        }
+        return backgroundEditors[document]
+    }
+
+    /**
+     * Moves a diff that was streamed off-screen into the editor the user just opened
+     */
+    fun onFileOpened(file: VirtualFile) {
+        val document = FileDocumentManager.getInstance().getDocument(file) ?: return
+        if (!backgroundEditors.containsKey(document)) {
+            return
+        }
+
+        val editor = findOpenedEditor(file) ?: return
+        handlers[document]?.attachEditor(editor)
+        releaseBackgroundEditor(document)
+    }
+
+    fun onHandlerClosed(document: Document) {
+        releaseBackgroundEditor(document)
+    }
+
+    /**
+     * Forgets [handler] once it closed by itself, a newer handler registered for the same document is kept
+     */
+    fun unregister(handler: DiffStreamHandler, document: Document) {
+        handlers.remove(document, handler)
+        releaseBackgroundEditor(document)
+    }
+
+    private fun findOpenedEditor(file: VirtualFile): Editor? {
+        return FileEditorManager.getInstance(project).getEditors(file)
+            .filterIsInstance<TextEditor>()
+            .firstOrNull()
+            ?.editor
+    }
+
+    private fun releaseBackgroundEditor(document: Document) {
+        val editor = backgroundEditors.remove(document) ?: return
+
+        ApplicationManager.getApplication().invokeLater {
+            if (!editor.isDisposed) {
+                EditorFactory.getInstance().releaseEditor(editor)
+            }
+        }
+    }
+
+    override fun dispose() {
+        handlers.clear()
+
+        // Streams that were never opened or resolved still hold their off-screen editor
+        val editors = backgroundEditors.values.toList()
+        backgroundEditors.clear()
+        val release = {
+            editors.filterNot { it.isDisposed }.forEach { EditorFactory.getInstance().releaseEditor(it) }
+        }
+        if (ApplicationManager.getApplication().isDispatchThread) {
+            release()
+        } else {
+            ApplicationManager.getApplication().invokeAndWait(release)
+        }
+    }
+}
@@ -12,6 +12,8 @@ import com.intellij.openapi.fileEditor.FileDocumentManager
 import com.intellij.openapi.fileEditor.FileEditorManager
 import com.intellij.openapi.project.Project
 import com.intellij.openapi.util.TextRange
+import com.intellij.openapi.util.text.StringUtil
+import com.intellij.openapi.vfs.VirtualFile
 import com.intellij.openapi.vfs.VirtualFileManager
 import com.intellij.ui.JBColor
 import com.intellij.openapi.editor.ScrollType
@@ -84,7 +86,8 @@ class EditorUtils(val editor: Editor) {
     }
 
     /**
-     * Extracts code ranges from the editor: (prefix, highlighted/selected text, suffix)
+     * Extracts code ranges from the editor: (prefix, highlighted/selected text, suffix).
+     * Prefix and suffix are limited to the context window around the selection.
      */
     fun getHighlightedRangeTriplet(): Triple<String, String, String> {
         val rif = getHighlightedRIF()
@@ -96,9 +99,8 @@ class EditorUtils(val editor: Editor) {
             // Use the RangeInFileWithContents to get absolute offsets
             val (startOffset, endOffset) = rif.offsets
 
-            val prefix = editor.document.getText(TextRange(0, startOffset))
             val highlighted = rif.contents
-            val suffix = editor.document.getText(TextRange(endOffset, editor.document.textLength))
+            val (prefix, suffix) = ContextWindow.getPrefixAndSuffix(editor.project, editor.document, startOffset, endOffset)
 
             removeSelection()
 
@@ -143,11 +145,31 @@ class EditorUtils(val editor: Editor) {
     fun readFileWithLineNumbers(): String? {
         return ApplicationManager.getApplication().runReadAction<String?> {
             val document = editor.document
-            val text = document.text
-            val lines = text.lines()
-            lines.mapIndexed { index, line ->
-                "${index + 1}: $line"
-            }.joinToString("\n")
+            val lineCount = document.lineCount
+            if (lineCount == 0) {
+                return@runReadAction "1: "
+            }
+
+            // Render straight from the document's line offsets instead of splitting a full copy of the text
+            val text = document.immutableCharSequence
+            val builder = StringBuilder(text.length + lineCount * 6)
+            for (line in 0 until lineCount) {
+                if (line > 0) {
+                    builder.append('\n')
+                }
+                builder.append(line + 1).append(": ")
+                    .append(text, document.getLineStartOffset(line), document.getLineEndOffset(line))
+            }
+            builder.toString()
+        }
+    }
+
+    /**
+     * Computes a cheap hash of the current document content, used to detect changes without sending the content
+     */
+    fun getContentHash(): String {
+        return ApplicationManager.getApplication().runReadAction<String> {
+            Integer.toHexString(StringUtil.stringHashCode(editor.document.immutableCharSequence))
         }
     }
 
@@ -198,20 +220,11 @@ class EditorUtils(val editor: Editor) {
          * Gets editor for the no exist filepath and returns an EditorUtils instance
          */
         fun getEditorByCreateFile(project: Project, filepath: String?): EditorUtils? {
-            if (!filepath.isNullOrEmpty()) {
-                // file not exists and create
-                val ioFile = File(filepath.replace("file:///", ""))
-                if (!ioFile.exists()) {
-                    ioFile.parentFile?.mkdirs()
-                    ioFile.createNewFile()
-                }
-                // IntelliJ refresh VirtualFile
-                val virtualFile = LocalFileSystem.getInstance().refreshAndFindFileByIoFile(ioFile)
-                if (virtualFile != null) {
-                    ApplicationManager.getApplication().invokeAndWait {
-                        runWriteAction {
-                            FileEditorManager.getInstance(project).openFile(virtualFile, true)
-                        }
+            val virtualFile = findOrCreateFile(filepath)
+            if (virtualFile != null) {
+                ApplicationManager.getApplication().invokeAndWait {
+                    runWriteAction {
+                        FileEditorManager.getInstance(project).openFile(virtualFile, true)
                     }
                 }
             }
@@ -219,5 +232,23 @@ class EditorUtils(val editor: Editor) {
             val editor = FileEditorManager.getInstance(project).selectedTextEditor ?: return null
             return EditorUtils(editor)
         }
+
+        /**
+         * Finds the VirtualFile for the filepath, creating the file on disk first if it doesn't exist yet
+         */
+        fun findOrCreateFile(filepath: String?): VirtualFile? {
+            if (filepath.isNullOrEmpty()) {
+                return null
+            }
+
+            // file not exists and create
+            val ioFile = File(filepath.replace("file:///", ""))
+            if (!ioFile.exists()) {
+                ioFile.parentFile?.mkdirs()
+                ioFile.createNewFile()
+            }
+            // IntelliJ refresh VirtualFile
+            return LocalFileSystem.getInstance().refreshAndFindFileByIoFile(ioFile)
+        }
     }
-}
+}
\ No newline at end of file
@@ -1,10 +1,10 @@
 package com.github.continuedev.continueintellijextension.editor
 
 import com.github.continuedev.continueintellijextension.auth.ContinueAuthService
+import com.github.continuedev.continueintellijextension.`continue`.ConfigMirror
 import com.github.continuedev.continueintellijextension.`continue`.GetTheme
 import com.github.continuedev.continueintellijextension.services.ContinueExtensionSettings
 import com.github.continuedev.continueintellijextension.services.ContinuePluginService
-import com.github.continuedev.continueintellijextension.utils.castNestedOrNull
 import com.github.continuedev.continueintellijextension.utils.getMetaKeyLabel
 import com.github.continuedev.continueintellijextension.utils.getShiftKeyLabel
 import com.intellij.openapi.Disposable
@@ -40,40 +40,16 @@ const val DOWN_ARROW = " ▾"
 const val MAX_MODEL_WAIT_TIME = 1500
 
 /**
- * Fetches and combines available model titles from both "edit" and "chat" roles.
+ * Returns the available model titles from both "edit" and "chat" roles, read from the mirrored config.
  * Edit models are prioritized and appear first in the returned list.
  * Handles duplicate models by only including them once (prioritizing edit role).
  *
- * @param continuePluginService The service used to fetch config information
+ * @param project The project whose config mirror is read
  * @return List of model titles with edit models first, duplicates removed
- * @throws No exceptions, but will return empty list if request fails or times out after 1.5 seconds
+ * @throws No exceptions, but will return empty list if the config isn't available within 1.5 seconds
  */
-fun getModelTitles(continuePluginService: ContinuePluginService): List<String> {
-    val modelTitles = mutableListOf<String>()
-
-    continuePluginService.coreMessenger?.request("config/getSerializedProfileInfo", null, null) { response ->
-        val modelsByRole =
-            response.castNestedOrNull<Map<String, Any>>("content", "result", "config", "modelsByRole") ?: return@request
-
-        // Get edit models first
-        val editModels = modelsByRole.castNestedOrNull<List<*>>("edit")
-            ?.mapNotNull { it.castNestedOrNull<String>("title") } ?: emptyList()
-
-        // Then get chat models
-        val chatModels = modelsByRole.castNestedOrNull<List<*>>("chat")
-            ?.mapNotNull { it.castNestedOrNull<String>("title") } ?: emptyList()
-
-        // Add edit models first, then chat models (avoiding duplicates)
-        modelTitles.addAll(editModels)
-        modelTitles.addAll(chatModels.filter { it !in editModels })
-    }
-
-    val startTime = System.currentTimeMillis()
-    while (modelTitles.isEmpty() && System.currentTimeMillis() - startTime < MAX_MODEL_WAIT_TIME) {
-        Thread.sleep(20)
-    }
-
-    return modelTitles
+fun getModelTitles(project: Project): List<String> {
+    return project.service<ConfigMirror>().getModelTitles("edit", "chat", timeoutMs = MAX_MODEL_WAIT_TIME.toLong())
 }
 
 fun makeTextArea(): JTextArea {
@@ -161,8 +137,7 @@ fun openInlineEdit(project: Project?, editor: Editor) {
 
     val manager = EditorComponentInlaysManager.from(editor, true)
 
-    val continuePluginService = project.service<ContinuePluginService>()
-    val modelTitles = getModelTitles(continuePluginService)
+    val modelTitles = getModelTitles(project)
 
     val highlightedRIF = editorUtils.getHighlightedRIF() ?: return
     val (startLineNumber, endLineNumber) = highlightedRIF.lines
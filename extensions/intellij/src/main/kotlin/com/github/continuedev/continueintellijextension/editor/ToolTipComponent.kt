@@ -71,6 +71,8 @@ class StyledButton(text: String) : JButton(text) {
 class ToolTipComponent : JBPanel<ToolTipComponent> {
     private lateinit var addToChatButton: StyledButton
     private lateinit var editButton: StyledButton
+    private var totalWidth = 0
+    private var totalHeight = 0
 
     // 原有构造函数，基于文本选择位置
     constructor(editor: Editor, x: Int, y: Int) : super() {
@@ -141,13 +143,14 @@ class ToolTipComponent : JBPanel<ToolTipComponent> {
         addToChatButton.icon = IconLoader.getIcon("/icons/continue.svg", javaClass)
         editButton.icon = IconLoader.getIcon("/icons/continue.svg", javaClass)
 
+        // 隐藏而不是移除，下次选择时复用同一个组件
         addToChatButton.addActionListener { e: ActionEvent? ->
             focusContinueInput(editor.project)
-            editor.contentComponent.remove(this)
+            isVisible = false
         }
         editButton.addActionListener { e: ActionEvent? ->
             openInlineEdit(editor.project, editor)
-            editor.contentComponent.remove(this)
+            isVisible = false
         }
 
         // Calculate button widths
@@ -166,14 +169,25 @@ class ToolTipComponent : JBPanel<ToolTipComponent> {
         add(addToChatButton)
         add(editButton)
 
-        val totalWidth = addToChatWidth + editWidth + buttonMargin + (2 * componentHorizontalPadding)
-        val totalHeight = buttonHeight + (2 * buttonVerticalPadding)
+        totalWidth = addToChatWidth + editWidth + buttonMargin + (2 * componentHorizontalPadding)
+        totalHeight = buttonHeight + (2 * buttonVerticalPadding)
 
         // 调整位置，确保工具提示不会超出编辑器边界
         val adjustedPosition = adjustPositionToFitInEditor(editor, x, y, totalWidth, totalHeight)
         setBounds(adjustedPosition.x, adjustedPosition.y, totalWidth, totalHeight)
     }
 
+    /**
+     * 移动到当前光标位置，只重绘新旧位置所在的区域
+     */
+    fun moveToCaret(editor: Editor) {
+        val caretPosition = getCaretPositionInEditor(editor)
+        val adjustedPosition = adjustPositionToFitInEditor(editor, caretPosition.x, caretPosition.y, totalWidth, totalHeight)
+        if (x != adjustedPosition.x || y != adjustedPosition.y) {
+            setLocation(adjustedPosition.x, adjustedPosition.y)
+        }
+    }
+
     private fun adjustPositionToFitInEditor(editor: Editor, x: Int, y: Int, width: Int, height: Int): Point {
         // 获取编辑器可视区域
         val visibleArea = editor.scrollingModel.visibleArea
@@ -22,7 +22,7 @@ import javax.swing.JTextArea
 import kotlin.math.min
 
 class VerticalDiffBlock(
-    private val editor: Editor,
+    private var editor: Editor,
     private val project: Project,
     var startLine: Int,
     private val onAcceptReject: (VerticalDiffBlock, Boolean) -> Unit
@@ -66,6 +66,27 @@ class VerticalDiffBlock(
         refreshEditor()
     }
 
+    /**
+     * Moves the block's highlighters, deletion inlay and buttons to another editor of the same document,
+     * e.g. when a diff streamed into an off-screen editor gets opened by the user.
+     */
+    fun moveToEditor(newEditor: Editor) {
+        clearEditorUI()
+        editor = newEditor
+
+        val greenKey = EditorUtils(editor).createTextAttributesKey("CONTINUE_DIFF_NEW_LINE", 0x3000FF00)
+        addedLines.indices.forEach { index ->
+            editor.markupModel.addLineHighlighter(greenKey, startLine + index, HighlighterLayer.LAST)
+        }
+
+        if (hasRenderedDiffBlock) {
+            if (deletedLines.isNotEmpty()) {
+                renderDeletedLinesInlay()
+            }
+            renderButtons()
+        }
+    }
+
     fun deleteLineAt(line: Int) {
         val startOffset = editor.document.getLineStartOffset(line)
         val endOffset = min(editor.document.getLineEndOffset(line) + 1, editor.document.textLength)
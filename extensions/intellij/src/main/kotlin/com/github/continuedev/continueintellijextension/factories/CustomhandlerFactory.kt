@@ -5,15 +5,11 @@ import org.cef.browser.CefBrowser
 import org.cef.browser.CefFrame
 import org.cef.callback.CefCallback
 import org.cef.callback.CefSchemeHandlerFactory
-import org.cef.handler.CefLoadHandler
 import org.cef.handler.CefResourceHandler
 import org.cef.misc.IntRef
 import org.cef.misc.StringRef
 import org.cef.network.CefRequest
 import org.cef.network.CefResponse
-import java.io.IOException
-import java.io.InputStream
-import java.net.URLConnection
 
 class CustomSchemeHandlerFactory : CefSchemeHandlerFactory {
     override fun create(
@@ -28,22 +24,30 @@ class CustomSchemeHandlerFactory : CefSchemeHandlerFactory {
 
 class CustomResourceHandler : CefResourceHandler, DumbAware {
     private var state: ResourceHandlerState = ClosedConnection
-    private var currentUrl: String? = null
     override fun processRequest(
         cefRequest: CefRequest,
         cefCallback: CefCallback
     ): Boolean {
-        val url = cefRequest.url
-        return if (url != null) {
-            val pathToResource = url.replace("http://continue", "webview/").replace("http://localhost:5173", "webview/")
-            val newUrl = javaClass.classLoader.getResource(pathToResource)
-            state = OpenedConnection(newUrl?.openConnection())
-            currentUrl = url
-            cefCallback.Continue()
-            true
-        } else {
-            false
+        val url = cefRequest.url ?: return false
+
+        val path = url.removePrefix("http://continue").removePrefix("http://localhost:5173")
+            .substringBefore('?')
+            .substringBefore('#')
+            .trimStart('/')
+            .ifEmpty { "index.html" }
+        val asset = WebviewAssetCache.get(path)
+
+        val headers = HashMap<String, String>()
+        cefRequest.getHeaderMap(headers)
+        val ifNoneMatch = headers.entries.firstOrNull { it.key.equals("If-None-Match", ignoreCase = true) }?.value
+
+        state = when {
+            asset == null -> ClosedConnection
+            asset.etag == ifNoneMatch -> NotModified(asset)
+            else -> CachedAssetConnection(asset)
         }
+        cefCallback.Continue()
+        return true
     }
 
     override fun getResponseHeaders(
@@ -51,15 +55,6 @@ class CustomResourceHandler : CefResourceHandler, DumbAware {
         responseLength: IntRef,
         redirectUrl: StringRef
     ) {
-        if (currentUrl !== null) {
-            when {
-                currentUrl!!.contains("css") -> cefResponse.mimeType = "text/css"
-                currentUrl!!.contains("js") -> cefResponse.mimeType = "text/javascript"
-                currentUrl!!.contains("html") -> cefResponse.mimeType = "text/html"
-                else -> {}
-            }
-        }
-
         state.getResponseHeaders(cefResponse, responseLength, redirectUrl)
     }
 
@@ -97,68 +92,52 @@ sealed class ResourceHandlerState {
 }
 
 
-class OpenedConnection(private val connection: URLConnection?) :
+class CachedAssetConnection(private val asset: WebviewAssetCache.Asset) :
     ResourceHandlerState() {
 
-    private val inputStream: InputStream? by lazy {
-        connection?.inputStream
-    }
+    private var position = 0
 
     override fun getResponseHeaders(
         cefResponse: CefResponse,
         responseLength: IntRef,
         redirectUrl: StringRef
     ) {
-        try {
-            if (connection != null) {
-                val fullUrl = connection.url.toString()
-                // Extract only the resource path after the JAR prefix to prevent incorrect mime type matching
-                // (e.g., if a user's home folder contains "js" in the path)
-                val url = fullUrl.substringAfterLast("jar!/", fullUrl)
-                when {
-                    url.contains("css") -> cefResponse.mimeType = "text/css"
-                    url.contains("js") -> cefResponse.mimeType = "text/javascript"
-                    url.contains("html") -> cefResponse.mimeType = "text/html"
-                    else -> cefResponse.mimeType = connection.contentType
-                }
-                responseLength.set(inputStream?.available() ?: 0)
-                cefResponse.status = 200
-            } else {
-                // Handle the case where connection is null
-                cefResponse.error = CefLoadHandler.ErrorCode.ERR_FAILED
-                cefResponse.statusText = "Connection is null"
-                cefResponse.status = 500
-            }
-        } catch (e: IOException) {
-            cefResponse.error = CefLoadHandler.ErrorCode.ERR_FILE_NOT_FOUND
-            cefResponse.statusText = e.localizedMessage
-            cefResponse.status = 404
-        }
+        cefResponse.mimeType = asset.mimeType
+        cefResponse.setHeaderMap(getCacheHeaders(asset))
+        responseLength.set(asset.bytes.size)
+        cefResponse.status = 200
     }
 
-
     override fun readResponse(
         dataOut: ByteArray,
         bytesToRead: Int,
         bytesRead: IntRef,
         callback: CefCallback
     ): Boolean {
-        return inputStream?.let { inputStream ->
-            val availableSize = inputStream.available()
-            return if (availableSize > 0) {
-                val maxBytesToRead = minOf(availableSize, bytesToRead)
-                val realBytesRead = inputStream.read(dataOut, 0, maxBytesToRead)
-                bytesRead.set(realBytesRead)
-                true
-            } else {
-                inputStream.close()
-                false
-            }
-        } ?: false
+        val remaining = asset.bytes.size - position
+        if (remaining <= 0) {
+            bytesRead.set(0)
+            return false
+        }
+
+        val length = minOf(remaining, bytesToRead)
+        System.arraycopy(asset.bytes, position, dataOut, 0, length)
+        position += length
+        bytesRead.set(length)
+        return true
     }
+}
 
-    override fun close() {
-        inputStream?.close()
+class NotModified(private val asset: WebviewAssetCache.Asset) : ResourceHandlerState() {
+    override fun getResponseHeaders(
+        cefResponse: CefResponse,
+        responseLength: IntRef,
+        redirectUrl: StringRef
+    ) {
+        cefResponse.mimeType = asset.mimeType
+        cefResponse.setHeaderMap(getCacheHeaders(asset))
+        responseLength.set(0)
+        cefResponse.status = 304
     }
 }
 
@@ -171,3 +150,7 @@ object ClosedConnection : ResourceHandlerState() {
         cefResponse.status = 404
     }
 }
+
+// Revalidate on every load so a plugin update never serves a stale bundle
+private fun getCacheHeaders(asset: WebviewAssetCache.Asset): Map<String, String> =
+    mapOf("ETag" to asset.etag, "Cache-Control" to "no-cache")
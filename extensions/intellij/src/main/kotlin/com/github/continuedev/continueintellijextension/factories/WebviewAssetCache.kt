@@ -0,0 +1,92 @@
+package com.github.continuedev.continueintellijextension.factories
+
+import java.net.URLConnection
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+import java.util.zip.CRC32
+
+/**
+ * In-memory copy of the `webview/` bundle served to JCEF.
+ *
+ * Assets are read fully from the plugin jar the first time they are requested (or when [preload] runs at
+ * startup), so responses have an exact content length and can be revalidated with an ETag.
+ */
+object WebviewAssetCache {
+    class Asset(val bytes: ByteArray, val mimeType: String, val etag: String)
+
+    private const val RESOURCE_ROOT = "webview/"
+
+    private const val ENTRY_POINT = "index.html"
+
+    // The bundle is a few MB, larger files are served without being kept around
+    private const val MAX_CACHED_BYTES = 64L * 1024 * 1024
+
+    private val MIME_TYPES = mapOf(
+        "html" to "text/html",
+        "js" to "text/javascript",
+        "mjs" to "text/javascript",
+        "css" to "text/css",
+        "json" to "application/json",
+        "map" to "application/json",
+        "svg" to "image/svg+xml",
+        "png" to "image/png",
+        "jpg" to "image/jpeg",
+        "jpeg" to "image/jpeg",
+        "gif" to "image/gif",
+        "ico" to "image/x-icon",
+        "woff" to "font/woff",
+        "woff2" to "font/woff2",
+        "ttf" to "font/ttf",
+        "wasm" to "application/wasm",
+        "txt" to "text/plain"
+    )
+
+    private val ASSET_REFERENCE = Regex("""(?:src|href)="/?([^"]+)"""")
+
+    private val assets = ConcurrentHashMap<String, Asset>()
+    private val cachedBytes = AtomicLong(0)
+
+    /**
+     * Returns the asset for a path relative to the bundle root, or null if it doesn't exist
+     */
+    fun get(path: String): Asset? {
+        assets[path]?.let { return it }
+
+        val asset = load(path) ?: return null
+        if (cachedBytes.addAndGet(asset.bytes.size.toLong()) <= MAX_CACHED_BYTES) {
+            return assets.putIfAbsent(path, asset) ?: asset
+        }
+
+        cachedBytes.addAndGet(-asset.bytes.size.toLong())
+        return asset
+    }
+
+    /**
+     * Reads the entry point and everything it references so the first page load doesn't touch the jar
+     */
+    fun preload() {
+        val startTime = System.currentTimeMillis()
+        val entryPoint = get(ENTRY_POINT) ?: return
+
+        ASSET_REFERENCE.findAll(String(entryPoint.bytes, Charsets.UTF_8))
+            .map { it.groupValues[1] }
+            .filter { !it.contains("://") }
+            .forEach { get(it) }
+
+        println("Preloaded ${assets.size} webview assets (${cachedBytes.get()} bytes) in ${System.currentTimeMillis() - startTime}ms")
+    }
+
+    private fun load(path: String): Asset? {
+        val bytes = javaClass.classLoader.getResourceAsStream(RESOURCE_ROOT + path)?.use { it.readBytes() } ?: return null
+
+        val checksum = CRC32().apply { update(bytes) }
+        val etag = "\"${bytes.size.toString(16)}-${checksum.value.toString(16)}\""
+
+        return Asset(bytes, getMimeType(path), etag)
+    }
+
+    private fun getMimeType(path: String): String {
+        val extension = path.substringAfterLast('/').substringAfterLast('.', "").lowercase()
+        return MIME_TYPES[extension] ?: URLConnection.guessContentTypeFromName(path) ?: "application/octet-stream"
+    }
+}
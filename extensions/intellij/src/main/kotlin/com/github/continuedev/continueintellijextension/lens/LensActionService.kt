@@ -0,0 +1,289 @@
+package com.tabnineCommon.chat.lens
+
+import com.github.continuedev.continueintellijextension.`continue`.ConfigMirror
+import com.github.continuedev.continueintellijextension.editor.ContextWindow
+import com.github.continuedev.continueintellijextension.editor.DiffLine
+import com.github.continuedev.continueintellijextension.editor.DiffStreamHandler
+import com.github.continuedev.continueintellijextension.editor.DiffStreamService
+import com.github.continuedev.continueintellijextension.editor.EditorComponentInlaysManager
+import com.github.continuedev.continueintellijextension.services.ContinueExecutors
+import com.github.continuedev.continueintellijextension.services.ContinuePluginService
+import com.github.continuedev.continueintellijextension.utils.uuid
+import com.intellij.openapi.Disposable
+import com.intellij.openapi.application.ApplicationManager
+import com.intellij.openapi.components.Service
+import com.intellij.openapi.components.service
+import com.intellij.openapi.editor.Editor
+import com.intellij.openapi.editor.colors.EditorFontType
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.util.Disposer
+import com.intellij.openapi.util.IconLoader
+import com.intellij.openapi.util.TextRange
+import com.intellij.openapi.util.text.StringUtil
+import com.intellij.psi.PsiElement
+import com.intellij.util.ui.JBUI
+import com.intellij.util.ui.UIUtil
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.launch
+import java.awt.BorderLayout
+import java.awt.Cursor
+import java.awt.event.MouseAdapter
+import java.awt.event.MouseEvent
+import java.util.concurrent.atomic.AtomicBoolean
+import javax.swing.JLabel
+import javax.swing.JPanel
+import javax.swing.JTextArea
+
+/**
+ * Runs the quick actions of the code lens without going through the chat webview.
+ *
+ * Explanations and suggestions are streamed from `llm/streamChat` into a panel above the element, comments
+ * are streamed into the editor as a diff with `streamDiffLines`. Results are cached per action and element
+ * content, so clicking the same lens again on unchanged code shows the previous result right away. Comments are
+ * only cached once the user accepted them.
+ */
+@Service(Service.Level.PROJECT)
+class LensActionService(private val project: Project) : Disposable {
+    private val coroutineScope = CoroutineScope(SupervisorJob() + ContinueExecutors.getInstance().dispatcher(ContinueExecutors.Pool.IO))
+
+    private val textResults = object : LinkedHashMap<String, String>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, String>): Boolean = size > MAX_CACHED_RESULTS
+    }
+
+    private val diffResults = object : LinkedHashMap<String, List<DiffLine>>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, List<DiffLine>>): Boolean =
+            size > MAX_CACHED_RESULTS
+    }
+
+    /**
+     * Runs [intent] on [element] inline, returns false for intents that need the chat
+     */
+    fun run(editor: Editor, element: PsiElement, intent: String): Boolean {
+        return when (intent) {
+            EXPLAIN, SUGGEST -> {
+                showTextResult(editor, element, intent)
+                true
+            }
+
+            COMMENT -> {
+                insertComments(editor, element)
+                true
+            }
+
+            else -> false
+        }
+    }
+
+    private fun showTextResult(editor: Editor, element: PsiElement, intent: String) {
+        val code = element.text
+        val cacheKey = getCacheKey(intent, code)
+        val startLine = editor.document.getLineNumber(element.textRange.startOffset)
+        val messageId = uuid()
+        val isRunning = AtomicBoolean(false)
+
+        val panel = LensResultPanel(editor)
+        val inlay = EditorComponentInlaysManager.from(editor, false).insert(startLine, panel, showAbove = true) ?: return
+        panel.onClose = {
+            if (isRunning.getAndSet(false)) {
+                // The core aborts the stream registered under the message id passed as data
+                project.service<ContinuePluginService>().coreMessenger?.request("abort", messageId, null) { }
+            }
+            Disposer.dispose(inlay)
+        }
+
+        val cached = synchronized(textResults) { textResults[cacheKey] }
+        if (cached != null) {
+            panel.append(cached)
+            return
+        }
+
+        val coreMessenger = project.service<ContinuePluginService>().coreMessenger
+        if (coreMessenger == null) {
+            panel.append("Continue 服务不可用，请确保插件已正确初始化")
+            return
+        }
+
+        val language = element.containingFile?.language?.displayName ?: ""
+        val requestData = mapOf(
+            "messages" to listOf(mapOf("role" to "user", "content" to buildPrompt(intent, language, code))),
+            "completionOptions" to mapOf("stream" to true),
+            "title" to intent
+        )
+
+        val result = StringBuilder()
+        isRunning.set(true)
+        coreMessenger.request("llm/streamChat", requestData, messageId) { response ->
+            if (!isRunning.get()) return@request
+            val responseMap = response as? Map<*, *> ?: return@request
+
+            val content = (responseMap["content"] as? Map<*, *>)?.get("content") as? String
+            if (content != null) {
+                result.append(content)
+                panel.append(content)
+            }
+
+            if (responseMap["done"] == true) {
+                isRunning.set(false)
+                if (responseMap["status"] == "success") {
+                    synchronized(textResults) { textResults[cacheKey] = result.toString() }
+                } else {
+                    panel.append("\n生成失败：${responseMap["error"] ?: "未知错误"}")
+                }
+            }
+        }
+    }
+
+    private fun insertComments(editor: Editor, element: PsiElement) {
+        val document = editor.document
+        // The diff works on whole lines
+        val startLine = document.getLineNumber(element.textRange.startOffset)
+        val endLine = document.getLineNumber(element.textRange.endOffset)
+        val startOffset = document.getLineStartOffset(startLine)
+        val endOffset = document.getLineEndOffset(endLine)
+        val highlighted = document.getText(TextRange(startOffset, endOffset))
+        val cacheKey = getCacheKey(COMMENT, highlighted)
+
+        val diffStreamService = project.service<DiffStreamService>()
+        val handlerRef = arrayOfNulls<DiffStreamHandler>(1)
+        val handler = DiffStreamHandler(
+            project,
+            editor,
+            startLine,
+            endLine,
+            {
+                handlerRef[0]?.let { closed ->
+                    diffStreamService.unregister(closed, document)
+                    // Only cache comments the user kept, a rejected result, even a replayed one, is not offered again
+                    val diffLines = closed.getReceivedDiffLines()
+                    synchronized(diffResults) {
+                        if (closed.hasRejectedChanges) {
+                            diffResults.remove(cacheKey)
+                        } else if (diffLines.isNotEmpty()) {
+                            diffResults[cacheKey] = diffLines
+                        }
+                    }
+                }
+            },
+            {},
+            null,
+            null
+        )
+        handlerRef[0] = handler
+        diffStreamService.register(handler, editor)
+
+        val cached = synchronized(diffResults) { diffResults[cacheKey] }
+        if (cached != null) {
+            handler.applyDiffLinesToEditor(cached)
+            return
+        }
+
+        coroutineScope.launch {
+            val (prefix, suffix) = ContextWindow.getPrefixAndSuffix(project, document, startOffset, endOffset)
+            val modelTitle = project.service<ConfigMirror>().getSelectedModel("edit", "chat")?.get("title") as? String
+            ApplicationManager.getApplication().invokeLater {
+                handler.streamDiffLinesToEditor(COMMENT_INSTRUCTION, prefix, highlighted, suffix, modelTitle ?: "", true)
+            }
+        }
+    }
+
+    private fun buildPrompt(intent: String, language: String, code: String): String {
+        val instruction = when (intent) {
+            EXPLAIN -> "请用中文简要解释下面这段代码的作用和关键逻辑，不超过200字，不要重复代码。"
+            else -> "请用中文给出下面这段代码最重要的优化建议，最多3条，每条一两句话，不要输出完整代码。"
+        }
+        return "$instruction\n\n```$language\n$code\n```"
+    }
+
+    private fun getCacheKey(intent: String, code: String): String {
+        return "$intent:${code.length}:${Integer.toHexString(StringUtil.stringHashCode(code))}"
+    }
+
+    override fun dispose() {
+        coroutineScope.cancel()
+    }
+
+    /**
+     * Read-only text shown above the element, with a close button
+     */
+    private class LensResultPanel(editor: Editor) : JPanel(BorderLayout()) {
+        var onClose: () -> Unit = {}
+
+        private val pendingText = StringBuilder()
+        private val isFlushScheduled = AtomicBoolean(false)
+
+        private val textArea = JTextArea().apply {
+            isEditable = false
+            lineWrap = true
+            wrapStyleWord = true
+            font = editor.colorsScheme.getFont(EditorFontType.PLAIN)
+            foreground = UIUtil.getContextHelpForeground()
+            background = editor.colorsScheme.defaultBackground
+            border = JBUI.Borders.empty(4, 8)
+            text = "生成中..."
+        }
+
+        private var hasText = false
+
+        init {
+            isOpaque = false
+            border = JBUI.Borders.customLine(UIUtil.getBoundsColor(), 0, 2, 0, 0)
+            add(textArea, BorderLayout.CENTER)
+            add(createCloseButton(), BorderLayout.EAST)
+        }
+
+        /**
+         * Appends streamed text, coalescing all text of one EDT turn into a single update
+         */
+        fun append(text: String) {
+            synchronized(pendingText) { pendingText.append(text) }
+            if (isFlushScheduled.compareAndSet(false, true)) {
+                ApplicationManager.getApplication().invokeLater { flush() }
+            }
+        }
+
+        private fun flush() {
+            isFlushScheduled.set(false)
+            val text = synchronized(pendingText) {
+                pendingText.toString().also { pendingText.setLength(0) }
+            }
+            if (!hasText) {
+                textArea.text = ""
+                hasText = true
+            }
+            textArea.append(text)
+            revalidate()
+        }
+
+        private fun createCloseButton(): JLabel {
+            return JLabel(IconLoader.getIcon("/icons/close.svg", LensResultPanel::class.java)).apply {
+                verticalAlignment = JLabel.TOP
+                border = JBUI.Borders.empty(4, 6)
+                addMouseListener(object : MouseAdapter() {
+                    override fun mouseEntered(e: MouseEvent) {
+                        cursor = Cursor(Cursor.HAND_CURSOR)
+                    }
+
+                    override fun mouseClicked(e: MouseEvent) {
+                        onClose()
+                    }
+                })
+            }
+        }
+    }
+
+    companion object {
+        const val EXPLAIN = "解释代码"
+
+        const val SUGGEST = "生成优化建议"
+
+        const val COMMENT = "生成代码注释"
+
+        private const val COMMENT_INSTRUCTION = "为这段代码添加中文注释，包括文档注释和关键逻辑的行内注释，不要修改任何代码"
+
+        private const val MAX_CACHED_RESULTS = 64
+
+        fun getInstance(project: Project): LensActionService = project.service()
+    }
+}
@@ -0,0 +1,96 @@
+package com.tabnineCommon.chat.lens
+
+import com.intellij.codeInsight.daemon.DaemonCodeAnalyzer
+import com.intellij.codeInsight.hints.InlayHintsPassFactory
+import com.intellij.openapi.editor.Editor
+import com.intellij.openapi.editor.event.VisibleAreaEvent
+import com.intellij.openapi.editor.event.VisibleAreaListener
+import com.intellij.openapi.util.Key
+import com.intellij.psi.PsiDocumentManager
+import java.awt.Rectangle
+import javax.swing.Timer
+
+/**
+ * Tracks the lines of an editor that code lenses are collected for.
+ *
+ * Lenses are only built for the visible lines plus a margin of several screens, small files are collected as a
+ * whole. Restarting the daemon reruns all highlighting passes of the file, so it only happens when scrolling
+ * leaves the collected window, once scrolling settles.
+ */
+class LensViewport private constructor(private val editor: Editor) : VisibleAreaListener {
+    @Volatile
+    private var visibleLines: IntRange? = null
+
+    @Volatile
+    private var collectedLines: IntRange? = null
+
+    private val refreshTimer = Timer(REFRESH_DELAY_MS) { refresh() }.apply { isRepeats = false }
+
+    init {
+        editor.scrollingModel.addVisibleAreaListener(this)
+    }
+
+    /**
+     * Returns the lines to collect lenses for and remembers them as collected
+     */
+    fun startCollecting(): IntRange {
+        val lineCount = editor.document.lineCount
+        val lines = if (lineCount <= FULL_COLLECT_LINES) {
+            0 until lineCount
+        } else {
+            val visible = visibleLines ?: editor.caretModel.logicalPosition.line.let { it..it }
+            val margin = maxOf(MIN_MARGIN_LINES, (visible.last - visible.first) * MARGIN_SCREENS)
+            maxOf(0, visible.first - margin)..(visible.last + margin)
+        }
+        collectedLines = lines
+        return lines
+    }
+
+    override fun visibleAreaChanged(e: VisibleAreaEvent) {
+        val visible = toLines(e.newRectangle) ?: return
+        visibleLines = visible
+
+        val collected = collectedLines ?: return
+        if (visible.first < collected.first || visible.last > collected.last) {
+            refreshTimer.restart()
+        }
+    }
+
+    private fun toLines(area: Rectangle): IntRange? {
+        if (area.height <= 0) {
+            return null
+        }
+        val firstLine = editor.xyToLogicalPosition(area.location).line
+        val lastLine = editor.xyToLogicalPosition(Rectangle(area.x, area.y + area.height, 0, 0).location).line
+        return firstLine..lastLine
+    }
+
+    private fun refresh() {
+        val project = editor.project ?: return
+        if (editor.isDisposed || project.isDisposed) {
+            return
+        }
+
+        val psiFile = PsiDocumentManager.getInstance(project).getPsiFile(editor.document) ?: return
+        InlayHintsPassFactory.forceHintsUpdateOnNextPass()
+        DaemonCodeAnalyzer.getInstance(project).restart(psiFile)
+    }
+
+    companion object {
+        private val KEY = Key.create<LensViewport>("continue.lensViewport")
+
+        private const val MIN_MARGIN_LINES = 500
+
+        private const val MARGIN_SCREENS = 5
+
+        // Files up to this size are collected in full, so scrolling them never restarts the daemon
+        private const val FULL_COLLECT_LINES = 2_000
+
+        private const val REFRESH_DELAY_MS = 300
+
+        @Synchronized
+        fun getInstance(editor: Editor): LensViewport {
+            return editor.getUserData(KEY) ?: LensViewport(editor).also { editor.putUserData(KEY, it) }
+        }
+    }
+}
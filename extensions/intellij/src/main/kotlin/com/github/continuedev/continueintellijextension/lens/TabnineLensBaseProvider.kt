@@ -1,12 +1,15 @@
 package com.tabnineCommon.chat.lens
 
+import com.github.continuedev.continueintellijextension.services.ContinueExtensionSettings
 import com.intellij.codeInsight.hints.ChangeListener
 import com.intellij.codeInsight.hints.ImmediateConfigurable
+import com.intellij.codeInsight.hints.InlayHintsCollector
 import com.intellij.codeInsight.hints.InlayHintsProvider
 import com.intellij.codeInsight.hints.InlayHintsSink
 import com.intellij.codeInsight.hints.NoSettings
 import com.intellij.codeInsight.hints.SettingsKey
 import com.intellij.openapi.editor.Editor
+import com.intellij.openapi.roots.GeneratedSourcesFilter
 import com.intellij.psi.PsiFile
 import javax.swing.JComponent
 import javax.swing.JPanel
@@ -17,7 +20,17 @@ open class TabnineLensBaseProvider(private val supportedElementTypes: List<Strin
         editor: Editor,
         settings: NoSettings,
         sink: InlayHintsSink
-    ) = TabnineLensCollector(editor, supportedElementTypes)
+    ): InlayHintsCollector? {
+        if (ContinueExtensionSettings.instance.continueState.interactionMode !in 0..1) {
+            return null
+        }
+        // Generated sources aren't edited by hand, lenses there are just noise
+        val virtualFile = file.virtualFile
+        if (virtualFile != null && GeneratedSourcesFilter.isGeneratedSourceByAnyFilter(virtualFile, file.project)) {
+            return null
+        }
+        return TabnineLensCollector(editor, supportedElementTypes)
+    }
 
     override val key: SettingsKey<NoSettings> = SettingsKey("tabnine.chat.inlay.provider")
 
@@ -30,89 +30,121 @@ class TabnineLensCollector(
 ) : FactoryInlayHintsCollector(editor) {
     companion object {
         private const val ID = "com.tabnine.chat.lens"
+
+        // Too large to send to chat in one piece, and a lens on it is rarely useful
+        private const val MAX_ELEMENT_LINES = 1500
+
+        private val LENS_ICON = IconLoader.getIcon("/icons/continue_lens.svg", TabnineLensCollector::class.java)
+
+        private val POPUP_ICON = IconLoader.getIcon("/icons/continue.svg", TabnineLensCollector::class.java)
     }
 
 //    private val binaryRequestFacade = DependencyContainer.instanceOfBinaryRequestFacade()
 
+    // Offsets of the lines lenses are collected for, the whole file unless lazy lenses are enabled
+    private val collectedRange: TextRange = if (ContinueExtensionSettings.instance.continueState.lazyLens) {
+        val lines = LensViewport.getInstance(editor).startCollecting()
+        val document = editor.document
+        val lastLine = minOf(lines.last, document.lineCount - 1)
+        if (lines.first > lastLine) {
+            TextRange.EMPTY_RANGE
+        } else {
+            TextRange(document.getLineStartOffset(lines.first), document.getLineEndOffset(lastLine))
+        }
+    } else {
+        TextRange(0, editor.document.textLength)
+    }
+
     override fun collect(element: PsiElement, editor: Editor, sink: InlayHintsSink): Boolean {
 //        if (!isChatEnabled()) {
 //            return false
 //        }
-        if (element.elementType.toString() in enabledElementTypes) {
-            if (ContinueExtensionSettings.instance.continueState.interactionMode == 1) {
-                sink.addBlockElement(
-                    offset = element.textRange.startOffset,
-                    relatesToPrecedingText = true,
-                    showAbove = true,
-                    priority = 0,
-                    presentation = factory.seq(
-                        factory.textSpacePlaceholder(countLeadingWhitespace(editor, element), false),
-                        factory.icon(IconLoader.getIcon("/icons/continue_lens.svg", javaClass)),
-                        buildQuickActionItem("解释代码", "解释代码", editor, element, false),
-                        buildQuickActionItem("生成单元测试", "生成单元测试", editor, element, true),
-                        buildQuickActionItem("生成代码注释", "生成代码注释", editor, element, true),
-                        buildQuickActionItem("生成优化建议", "生成优化建议", editor, element, true),
-                    )
+        val startOffset = element.textRange.startOffset
+        // Elements are visited in document order, nothing after the collected lines needs a lens
+        if (startOffset > collectedRange.endOffset) {
+            return false
+        }
+        if (startOffset < collectedRange.startOffset || element.elementType.toString() !in enabledElementTypes) {
+            return true
+        }
+
+        val document = editor.document
+        if (document.getLineNumber(element.textRange.endOffset) - document.getLineNumber(startOffset) > MAX_ELEMENT_LINES) {
+            return true
+        }
+
+        if (ContinueExtensionSettings.instance.continueState.interactionMode == 1) {
+            sink.addBlockElement(
+                offset = element.textRange.startOffset,
+                relatesToPrecedingText = true,
+                showAbove = true,
+                priority = 0,
+                presentation = factory.seq(
+                    factory.textSpacePlaceholder(countLeadingWhitespace(editor, element), false),
+                    factory.icon(LENS_ICON),
+                    buildQuickActionItem("解释代码", "解释代码", editor, element, false),
+                    buildQuickActionItem("生成单元测试", "生成单元测试", editor, element, true),
+                    buildQuickActionItem("生成代码注释", "生成代码注释", editor, element, true),
+                    buildQuickActionItem("生成优化建议", "生成优化建议", editor, element, true),
                 )
-            } else if (ContinueExtensionSettings.instance.continueState.interactionMode == 0) {
-                val inlResult: InlResult =
-                    object : InlResult {
-                        override fun onClick(editor: Editor, element: PsiElement, event: MouseEvent) {
-                            if (editor.project != null) {
-                                val popupActions: List<String> =
-                                    arrayListOf("解释代码", "生成单元测试", "生成代码注释", "生成优化建议")
-                                val popup: JBPopup = JBPopupFactory.getInstance()
-                                    .createListPopup(object : BaseListPopupStep<String>("", popupActions) {
-                                        override fun getTextFor(value: String): String {
-                                            return value
-                                        }
+            )
+        } else if (ContinueExtensionSettings.instance.continueState.interactionMode == 0) {
+            val inlResult: InlResult =
+                object : InlResult {
+                    override fun onClick(editor: Editor, element: PsiElement, event: MouseEvent) {
+                        if (editor.project != null) {
+                            val popupActions: List<String> =
+                                arrayListOf("解释代码", "生成单元测试", "生成代码注释", "生成优化建议")
+                            val popup: JBPopup = JBPopupFactory.getInstance()
+                                .createListPopup(object : BaseListPopupStep<String>("", popupActions) {
+                                    override fun getTextFor(value: String): String {
+                                        return value
+                                    }
 
-                                        override fun onChosen(
-                                            selectedValue: String,
-                                            finalChoice: Boolean
-                                        ): PopupStep<*>? {
-                                            val project = editor.project
-                                            if (project != null) {
-                                                incrementFeatureCount(project, selectedValue)
-                                            }
-
-                                            selectElementRange(editor, element)
-                                            sendCodeToChat(editor, selectedValue)
-                                            return FINAL_CHOICE
+                                    override fun onChosen(
+                                        selectedValue: String,
+                                        finalChoice: Boolean
+                                    ): PopupStep<*>? {
+                                        val project = editor.project
+                                        if (project != null) {
+                                            incrementFeatureCount(project, selectedValue)
                                         }
-                                    })
-                                popup.showInScreenCoordinates(editor.component, event.locationOnScreen)
-                            }
-                        }
 
-                        override val regularText: String
-                            get() {
-                                return ""
-                            }
+                                        runQuickAction(editor, element, selectedValue)
+                                        return FINAL_CHOICE
+                                    }
+                                })
+                            popup.showInScreenCoordinates(editor.component, event.locationOnScreen)
+                        }
                     }
-                val presentations: ArrayList<InlayPresentation> = ArrayList()
-                presentations.add(factory.textSpacePlaceholder(countLeadingWhitespace(editor, element), true))
-                presentations.add(factory.icon(IconLoader.getIcon("/icons/continue.svg", javaClass)))
-                presentations.add(factory.icon(AllIcons.Actions.FindAndShowNextMatchesSmall))
-                presentations.add(factory.textSpacePlaceholder(1, true))
-                val shiftedPresentation = SequencePresentation(presentations)
-                val finalPresentation = factory.referenceOnHover(
-                    shiftedPresentation,
-                    object : InlayPresentationFactory.ClickListener {
-                        override fun onClick(event: MouseEvent, translated: Point) {
-                            inlResult.onClick(editor, element, event)
+
+                    override val regularText: String
+                        get() {
+                            return ""
                         }
+                }
+            val presentations: ArrayList<InlayPresentation> = ArrayList()
+            presentations.add(factory.textSpacePlaceholder(countLeadingWhitespace(editor, element), true))
+            presentations.add(factory.icon(POPUP_ICON))
+            presentations.add(factory.icon(AllIcons.Actions.FindAndShowNextMatchesSmall))
+            presentations.add(factory.textSpacePlaceholder(1, true))
+            val shiftedPresentation = SequencePresentation(presentations)
+            val finalPresentation = factory.referenceOnHover(
+                shiftedPresentation,
+                object : InlayPresentationFactory.ClickListener {
+                    override fun onClick(event: MouseEvent, translated: Point) {
+                        inlResult.onClick(editor, element, event)
                     }
-                )
+                }
+            )
 
-                sink.addBlockElement(
-                    offset = element.textRange.startOffset,
-                    relatesToPrecedingText = true,
-                    showAbove = true,
-                    priority = 0,
-                    presentation = finalPresentation
-                )
-            }
+            sink.addBlockElement(
+                offset = element.textRange.startOffset,
+                relatesToPrecedingText = true,
+                showAbove = true,
+                priority = 0,
+                presentation = finalPresentation
+            )
         }
         return true
     }
@@ -136,14 +168,27 @@ class TabnineLensCollector(
                             incrementFeatureCount(project, intent)
                         }
 
-                        selectElementRange(editor, element)
-                        sendCodeToChat(editor, intent)
+                        runQuickAction(editor, element, intent)
                     }
                 },
             )
         )
     }
 
+    /**
+     * Explanations, suggestions and comments run inline, everything else goes to the chat
+     */
+    private fun runQuickAction(editor: Editor, element: PsiElement, intent: String) {
+        val project = editor.project ?: return
+        if (!element.isValid) {
+            return
+        }
+        if (!LensActionService.getInstance(project).run(editor, element, intent)) {
+            selectElementRange(editor, element)
+            sendCodeToChat(editor, intent)
+        }
+    }
+
     private fun selectElementRange(editor: Editor, element: PsiElement) {
         val selectionModel = editor.selectionModel
         val range = element.textRange
@@ -151,13 +196,14 @@ class TabnineLensCollector(
     }
 
     private fun countLeadingWhitespace(editor: Editor, element: PsiElement): Int {
-        val lineNumber = editor.document.getLineNumber(element.textRange.startOffset)
-        return editor.document.getText(
-            TextRange(
-                editor.document.getLineStartOffset(lineNumber),
-                editor.document.getLineEndOffset(lineNumber)
-            )
-        ).takeWhile { it.isWhitespace() }.length
+        val document = editor.document
+        val lineStartOffset = document.getLineStartOffset(document.getLineNumber(element.textRange.startOffset))
+        val text = document.charsSequence
+        var offset = lineStartOffset
+        while (offset < text.length && text[offset] != '\n' && text[offset].isWhitespace()) {
+            offset++
+        }
+        return offset - lineStartOffset
     }
 
     interface InlResult {
@@ -6,7 +6,8 @@ data class GetControlPlaneSessionInfoParams(val silent: Boolean, val useOnboardi
 
 data class WriteFileParams(
     val path: String,
-    val contents: String
+    val contents: String,
+    val toolCallId: String?
 )
 
 data class ShowVirtualFileParams(
@@ -58,6 +59,11 @@ data class RevertFileParams(
     var timestamp: Long
 )
 
+data class RevertToolCallParams(
+    val toolCallId: String,
+    val filepath: String?
+)
+
 data class GetDiffParams(val includeUnstaged: Boolean)
 
 data class GetBranchParams(val dir: String)
@@ -0,0 +1,137 @@
+package com.github.continuedev.continueintellijextension.services
+
+import com.intellij.openapi.Disposable
+import com.intellij.openapi.components.Service
+import com.intellij.openapi.components.service
+import com.intellij.openapi.diagnostic.Logger
+import com.intellij.util.concurrency.AppExecutorUtil
+import kotlinx.coroutines.CoroutineDispatcher
+import kotlinx.coroutines.asCoroutineDispatcher
+import java.util.concurrent.Executor
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Background executors of the plugin.
+ *
+ * The pools are bounded views on the platform's application pool, so they share its threads instead of
+ * starting their own, and each one only accepts a limited number of pending tasks. A saturated pool rejects
+ * new tasks rather than running them on the caller, which could be the EDT. Blocking work runs on virtual
+ * threads when the runtime has them. Everything is shut down when the plugin is unloaded.
+ */
+@Service
+class ContinueExecutors : Disposable {
+    enum class Pool(val threadName: String, val maxThreads: Int, val maxPending: Int, val isBlocking: Boolean) {
+        /** CPU bound work such as diffing and parsing */
+        COMPUTE("Continue Compute", Runtime.getRuntime().availableProcessors(), 256, false),
+
+        /** Work that waits on git, the file system or the network */
+        IO("Continue IO", 8, 256, true),
+    }
+
+    private val virtualThreadExecutor: ExecutorService? = createVirtualThreadExecutor()
+
+    private val executors = Pool.values().associateWith { pool ->
+        val backend = if (pool.isBlocking && virtualThreadExecutor != null) {
+            virtualThreadExecutor
+        } else {
+            AppExecutorUtil.getAppExecutorService()
+        }
+        val bounded = AppExecutorUtil.createBoundedApplicationPoolExecutor(pool.threadName, backend, pool.maxThreads, this)
+        ManagedExecutor(pool.threadName, bounded, pool.maxPending)
+    }
+
+    private val dispatchers = executors.mapValues { (_, executor) -> executor.asCoroutineDispatcher() }
+
+    fun executor(pool: Pool): Executor = executors.getValue(pool)
+
+    fun dispatcher(pool: Pool): CoroutineDispatcher = dispatchers.getValue(pool)
+
+    fun getStats(): List<ManagedExecutor.Stats> = executors.values.map { it.getStats() }
+
+    override fun dispose() {
+        executors.values.forEach { executor ->
+            executor.shutdown()
+            LOG.info("Shut down ${executor.getStats()}")
+        }
+        virtualThreadExecutor?.shutdownNow()
+    }
+
+    companion object {
+        private val LOG = Logger.getInstance(ContinueExecutors::class.java)
+
+        @JvmStatic
+        fun getInstance(): ContinueExecutors = service()
+
+        /**
+         * Virtual threads are only available from Java 21, the platform may still run on an older runtime
+         */
+        private fun createVirtualThreadExecutor(): ExecutorService? {
+            return try {
+                Executors::class.java.getMethod("newVirtualThreadPerTaskExecutor").invoke(null) as ExecutorService
+            } catch (e: ReflectiveOperationException) {
+                null
+            }
+        }
+    }
+}
+
+/**
+ * Executor that accepts at most [maxPending] queued or running tasks and counts what it rejects
+ */
+class ManagedExecutor(
+    private val name: String,
+    private val backend: ExecutorService,
+    private val maxPending: Int,
+) : Executor {
+    data class Stats(val name: String, val pending: Int, val peakPending: Int, val completed: Long, val rejected: Long)
+
+    private val pending = AtomicInteger()
+    private val peakPending = AtomicInteger()
+    private val completed = AtomicLong()
+    private val rejected = AtomicLong()
+
+    override fun execute(command: Runnable) {
+        val count = pending.incrementAndGet()
+        if (count > maxPending || backend.isShutdown) {
+            reject()
+        }
+        peakPending.accumulateAndGet(count, ::maxOf)
+
+        try {
+            backend.execute {
+                try {
+                    command.run()
+                } finally {
+                    pending.decrementAndGet()
+                    completed.incrementAndGet()
+                }
+            }
+        } catch (e: RejectedExecutionException) {
+            reject()
+        }
+    }
+
+    private fun reject(): Nothing {
+        pending.decrementAndGet()
+        val count = rejected.incrementAndGet()
+        // Log the first rejection and then only every so often, a saturated pool rejects in bursts
+        if (count == 1L || count % 100 == 0L) {
+            LOG.warn("$name rejected a task, ${getStats()}")
+        }
+        throw RejectedExecutionException("$name is saturated or shut down")
+    }
+
+    fun getStats(): Stats = Stats(name, pending.get(), peakPending.get(), completed.get(), rejected.get())
+
+    fun shutdown() {
+        backend.shutdownNow()
+    }
+
+    companion object {
+        private val LOG = Logger.getInstance(ManagedExecutor::class.java)
+    }
+}
@@ -1,7 +1,5 @@
 package com.github.continuedev.continueintellijextension.services
 
-import com.github.continuedev.continueintellijextension.constants.getConfigJsPath
-import com.github.continuedev.continueintellijextension.constants.getConfigJsonPath
 import com.intellij.openapi.application.ApplicationInfo
 import com.intellij.openapi.application.ApplicationManager
 import com.intellij.openapi.components.PersistentStateComponent
@@ -16,15 +14,9 @@ import com.intellij.util.concurrency.AppExecutorUtil
 import com.intellij.util.messages.Topic
 import com.intellij.util.ui.UIUtil
 import kotlinx.serialization.Serializable
-import kotlinx.serialization.decodeFromString
-import kotlinx.serialization.json.Json
-import okhttp3.OkHttpClient
-import okhttp3.Request
 import java.awt.FlowLayout
 import java.awt.GridBagConstraints
 import java.awt.GridBagLayout
-import java.io.File
-import java.io.IOException
 import java.util.concurrent.ScheduledFuture
 import java.util.concurrent.TimeUnit
 import javax.swing.*
@@ -38,6 +30,8 @@ class ContinueSettingsComponent : DumbAware {
     val enableOSR: JCheckBox = JCheckBox("启用离屏渲染（若插件聊天显示有异常，请禁用）")
     val displayEditorTooltip: JCheckBox = JCheckBox("显示编辑器工具提示")
     val showIDECompletionSideBySide: JCheckBox = JCheckBox("并列显示IDE的代码补全建议")
+    val preloadWebview: JCheckBox = JCheckBox("启动时预加载聊天窗口（加快首次打开速度）")
+    val lazyLens: JCheckBox = JCheckBox("仅为可见区域附近的代码显示快捷操作（大文件更流畅）")
     // 添加单选按钮组件，标题为“快捷交互显示模式” 选项为"文字平铺"，“下拉图标”，“不显示”
     val interactionModeRadioButtons = arrayOf( "下拉图标", "文字平铺", "不显示").map { JBRadioButton(it) }
     // 创建一个水平面板来放置单选按钮
@@ -74,6 +68,8 @@ class ContinueSettingsComponent : DumbAware {
         interactionModePanel.add(JBLabel("（修改后重新打开文件即可生效）", UIUtil.ComponentStyle.SMALL))
         interactionModeRadioButtons.first().isSelected = true
         panel.add(interactionModePanel, constraints)
+        constraints.gridy++
+        panel.add(lazyLens, constraints)
         // 设置默认选中项
         constraints.gridy++
         panel.add(enableTabAutocomplete, constraints)
@@ -84,6 +80,8 @@ class ContinueSettingsComponent : DumbAware {
         constraints.gridy++
         panel.add(showIDECompletionSideBySide, constraints)
         constraints.gridy++
+        panel.add(preloadWebview, constraints)
+        constraints.gridy++
 
         // Add a "filler" component that takes up all remaining vertical space
         constraints.weighty = 1.0
@@ -116,6 +114,10 @@ open class ContinueExtensionSettings : PersistentStateComponent<ContinueExtensio
         var showIDECompletionSideBySide: Boolean = false
         var continueTestEnvironment: String = "production"
         var interactionMode: Int = 0
+        var maxParallelApplies: Int = 4
+        var maxContextTokens: Int = 4000
+        var preloadWebview: Boolean = false
+        var lazyLens: Boolean = true
     }
 
     var continueState: ContinueState = ContinueState()
@@ -136,53 +138,15 @@ open class ContinueExtensionSettings : PersistentStateComponent<ContinueExtensio
     }
 
 
+    private val remoteConfigSync = RemoteConfigSync()
+
     // Sync remote config from server
     private fun syncRemoteConfig() {
         val state = instance.continueState
+        val serverUrl = state.remoteConfigServerUrl
 
-        if (state.remoteConfigServerUrl != null && state.remoteConfigServerUrl!!.isNotEmpty()) {
-            // download remote config as json file
-
-            val client = OkHttpClient()
-            val baseUrl = state.remoteConfigServerUrl?.removeSuffix("/")
-
-            val requestBuilder = Request.Builder().url("${baseUrl}/sync")
-
-            if (state.userToken != null) {
-                requestBuilder.addHeader("Authorization", "Bearer ${state.userToken}")
-            }
-
-            val request = requestBuilder.build()
-            var configResponse: ContinueRemoteConfigSyncResponse? = null
-
-            try {
-                client.newCall(request).execute().use { response ->
-                    if (!response.isSuccessful) throw IOException("Unexpected code $response")
-
-                    response.body?.string()?.let { responseBody ->
-                        try {
-                            configResponse =
-                                Json.decodeFromString<ContinueRemoteConfigSyncResponse>(responseBody)
-                        } catch (e: Exception) {
-                            e.printStackTrace()
-                            return
-                        }
-                    }
-                }
-            } catch (e: IOException) {
-                e.printStackTrace()
-                return
-            }
-
-            if (configResponse?.configJson?.isNotEmpty()!!) {
-                val file = File(getConfigJsonPath(request.url.host))
-                file.writeText(configResponse!!.configJson!!)
-            }
-
-            if (configResponse?.configJs?.isNotEmpty()!!) {
-                val file = File(getConfigJsPath(request.url.host))
-                file.writeText(configResponse!!.configJs!!)
-            }
+        if (!serverUrl.isNullOrEmpty()) {
+            remoteConfigSync.sync(serverUrl, state.userToken)
         }
     }
 
@@ -229,6 +193,8 @@ class ContinueExtensionConfigurable : Configurable {
                     mySettingsComponent?.enableOSR?.isSelected != settings.continueState.enableOSR ||
                     mySettingsComponent?.displayEditorTooltip?.isSelected != settings.continueState.displayEditorTooltip ||
                     mySettingsComponent?.showIDECompletionSideBySide?.isSelected != settings.continueState.showIDECompletionSideBySide ||
+                    mySettingsComponent?.preloadWebview?.isSelected != settings.continueState.preloadWebview ||
+                    mySettingsComponent?.lazyLens?.isSelected != settings.continueState.lazyLens ||
                     mySettingsComponent?.interactionModeRadioButtons?.indexOfFirst { it.isSelected } != settings.continueState.interactionMode
         return modified
     }
@@ -243,6 +209,8 @@ class ContinueExtensionConfigurable : Configurable {
         settings.continueState.displayEditorTooltip = mySettingsComponent?.displayEditorTooltip?.isSelected ?: true
         settings.continueState.showIDECompletionSideBySide =
             mySettingsComponent?.showIDECompletionSideBySide?.isSelected ?: false
+        settings.continueState.preloadWebview = mySettingsComponent?.preloadWebview?.isSelected ?: false
+        settings.continueState.lazyLens = mySettingsComponent?.lazyLens?.isSelected ?: true
         settings.continueState.interactionMode = mySettingsComponent?.interactionModeRadioButtons?.indexOfFirst { it.isSelected } ?: 0
 
         ApplicationManager.getApplication().messageBus.syncPublisher(SettingsListener.TOPIC)
@@ -260,6 +228,8 @@ class ContinueExtensionConfigurable : Configurable {
         mySettingsComponent?.displayEditorTooltip?.isSelected = settings.continueState.displayEditorTooltip
         mySettingsComponent?.showIDECompletionSideBySide?.isSelected =
             settings.continueState.showIDECompletionSideBySide
+        mySettingsComponent?.preloadWebview?.isSelected = settings.continueState.preloadWebview
+        mySettingsComponent?.lazyLens?.isSelected = settings.continueState.lazyLens
         val interactionMode = settings.continueState.interactionMode
         if (interactionMode in 0..2) {
             mySettingsComponent?.interactionModeRadioButtons?.get(interactionMode)?.isSelected = true
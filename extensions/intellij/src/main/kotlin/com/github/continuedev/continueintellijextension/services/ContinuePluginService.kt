@@ -18,9 +18,10 @@ import kotlin.properties.Delegates
 class ContinuePluginService : Disposable, DumbAware {
     private val coroutineScope = CoroutineScope(Dispatchers.Main)
     var continuePluginWindow: ContinuePluginToolWindowFactory.ContinuePluginWindow? = null
-    var listener: (() -> Unit)? = null
+    private val listeners = mutableListOf<() -> Unit>()
     var ideProtocolClient: IdeProtocolClient? by Delegates.observable(null) { _, _, _ ->
-        synchronized(this) { listener?.also { listener = null }?.invoke() }
+        val pending = synchronized(this) { listeners.toList().also { listeners.clear() } }
+        pending.forEach { it() }
     }
     var coreMessengerManager: CoreMessengerManager? = null
     val coreMessenger: CoreMessenger?
@@ -47,20 +48,18 @@ class ContinuePluginService : Disposable, DumbAware {
 
     /**
      * Add a listener for protocolClient initialization.
-     * Currently, only one needs to be processed. If there are more than one,
-     * we can use an array to add listeners to ensure that the message is processed.
+     * Listeners added before initialization run in the order they were added,
+     * later ones run right away.
      */
     fun onProtocolClientInitialized(listener: () -> Unit) {
         if (ideProtocolClient == null) {
             synchronized(this) {
                 if (ideProtocolClient == null) {
-                    this.listener = listener
-                } else {
-                    listener()
+                    listeners.add(listener)
+                    return
                 }
             }
-        } else {
-            listener()
         }
+        listener()
     }
 }
\ No newline at end of file
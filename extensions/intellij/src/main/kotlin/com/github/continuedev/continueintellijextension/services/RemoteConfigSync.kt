@@ -0,0 +1,147 @@
+package com.github.continuedev.continueintellijextension.services
+
+import com.github.continuedev.continueintellijextension.constants.getConfigJsPath
+import com.github.continuedev.continueintellijextension.constants.getConfigJsonPath
+import kotlinx.serialization.decodeFromString
+import kotlinx.serialization.json.Json
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import java.io.File
+import java.io.IOException
+import java.util.concurrent.TimeUnit
+
+/**
+ * Downloads the remote config from `<server>/sync` into the local config files.
+ *
+ * The server is asked with `If-None-Match` for the ETag of the last download, and a body equal to the last
+ * one is not parsed again. In both cases the files are still checked against the last downloaded config, so
+ * a deleted or locally edited file is restored. Files are only written when their content differs, because
+ * every write makes the core reload its configuration.
+ */
+class RemoteConfigSync(
+    private val client: OkHttpClient = sharedClient,
+    private val configJsonPath: (String) -> String = ::getConfigJsonPath,
+    private val configJsPath: (String) -> String = ::getConfigJsPath,
+) {
+    enum class Result {
+        /** The server answered 304 or sent the same body as last time, and the files still had its content */
+        NOT_MODIFIED,
+
+        /** The config was downloaded but the files already had its content */
+        UNCHANGED,
+
+        /** At least one file was written */
+        UPDATED,
+
+        FAILED
+    }
+
+    private var lastRequestKey: String? = null
+    private var lastETag: String? = null
+    private var lastBody: String? = null
+    private var lastConfig: ContinueRemoteConfigSyncResponse? = null
+
+    @Synchronized
+    fun sync(serverUrl: String, userToken: String?): Result {
+        val requestBuilder = Request.Builder().url("${serverUrl.removeSuffix("/")}/sync")
+        if (userToken != null) {
+            requestBuilder.addHeader("Authorization", "Bearer $userToken")
+        }
+
+        // A different server or user gets a different config
+        val requestKey = "$serverUrl\n$userToken"
+        if (requestKey != lastRequestKey) {
+            lastRequestKey = requestKey
+            lastETag = null
+            lastBody = null
+            lastConfig = null
+        }
+        lastETag?.let { requestBuilder.addHeader("If-None-Match", it) }
+
+        val request = requestBuilder.build()
+        val host = request.url.host
+        var eTag: String? = null
+        val body = try {
+            client.newCall(request).execute().use { response ->
+                if (response.code == 304) {
+                    return restoreLastConfig(host)
+                }
+                if (!response.isSuccessful) throw IOException("Unexpected code $response")
+
+                eTag = response.header("ETag")
+                response.body?.string() ?: return Result.FAILED
+            }
+        } catch (e: IOException) {
+            e.printStackTrace()
+            return Result.FAILED
+        }
+
+        if (body == lastBody) {
+            lastETag = eTag
+            return restoreLastConfig(host)
+        }
+
+        val configResponse = try {
+            Json.decodeFromString<ContinueRemoteConfigSyncResponse>(body)
+        } catch (e: Exception) {
+            e.printStackTrace()
+            return Result.FAILED
+        }
+
+        val updated = try {
+            writeConfig(host, configResponse)
+        } catch (e: IOException) {
+            e.printStackTrace()
+            return Result.FAILED
+        }
+
+        // Only remembered once applied, so that a failed sync is retried in full
+        lastETag = eTag
+        lastBody = body
+        lastConfig = configResponse
+        return if (updated) Result.UPDATED else Result.UNCHANGED
+    }
+
+    /**
+     * Writes the last downloaded config again where the files no longer have its content
+     */
+    private fun restoreLastConfig(host: String): Result {
+        val config = lastConfig ?: return Result.NOT_MODIFIED
+        return try {
+            if (writeConfig(host, config)) Result.UPDATED else Result.NOT_MODIFIED
+        } catch (e: IOException) {
+            e.printStackTrace()
+            Result.FAILED
+        }
+    }
+
+    private fun writeConfig(host: String, config: ContinueRemoteConfigSyncResponse): Boolean {
+        var updated = false
+        config.configJson?.takeIf { it.isNotEmpty() }?.let {
+            updated = writeIfChanged(File(configJsonPath(host)), it) || updated
+        }
+        config.configJs?.takeIf { it.isNotEmpty() }?.let {
+            updated = writeIfChanged(File(configJsPath(host)), it) || updated
+        }
+        return updated
+    }
+
+    private fun writeIfChanged(file: File, content: String): Boolean {
+        if (file.isFile && file.readText() == content) {
+            return false
+        }
+        file.parentFile?.mkdirs()
+        file.writeText(content)
+        return true
+    }
+
+    companion object {
+        // One client for all syncs so that connections and threads are reused
+        private val sharedClient: OkHttpClient by lazy {
+            OkHttpClient.Builder()
+                .connectTimeout(10, TimeUnit.SECONDS)
+                .readTimeout(30, TimeUnit.SECONDS)
+                .build()
+        }
+    }
+}
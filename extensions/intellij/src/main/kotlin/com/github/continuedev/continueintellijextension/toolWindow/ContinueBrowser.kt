@@ -2,6 +2,7 @@ package com.github.continuedev.continueintellijextension.toolWindow
 
 import com.github.continuedev.continueintellijextension.activities.ContinuePluginDisposable
 import com.github.continuedev.continueintellijextension.constants.MessageTypes.Companion.PASS_THROUGH_TO_CORE
+import com.github.continuedev.continueintellijextension.`continue`.MessageHeader
 import com.github.continuedev.continueintellijextension.factories.CustomSchemeHandlerFactory
 import com.github.continuedev.continueintellijextension.services.ContinueExtensionSettings
 import com.github.continuedev.continueintellijextension.services.ContinuePluginService
@@ -16,7 +17,9 @@ import com.intellij.ui.jcef.JBCefClient.Properties
 import com.intellij.util.application
 import org.cef.CefApp
 import org.cef.browser.CefBrowser
+import org.cef.browser.CefFrame
 import org.cef.handler.CefLoadHandlerAdapter
+import org.cef.network.CefRequest
 
 class ContinueBrowser(val project: Project, url: String) {
     private fun registerAppSchemeHandler() {
@@ -29,12 +32,23 @@ class ContinueBrowser(val project: Project, url: String) {
 
     val browser: JBCefBrowser
 
+    private val messageBus: WebviewMessageBus
+
+    // Start of the page load, reset once the load time has been reported
+    @Volatile
+    private var loadStartedAt = 0L
+
     val continuePluginService: ContinuePluginService = project.getService(ContinuePluginService::class.java)
 
     init {
-        val isOSREnabled = application.getService(ContinueExtensionSettings::class.java).continueState.enableOSR
-
-        this.browser = JBCefBrowser.createBuilder().setOffScreenRendering(isOSREnabled).build().apply {
+        val continueState = application.getService(ContinueExtensionSettings::class.java).continueState
+        val isOSREnabled = continueState.enableOSR
+
+        // A preloaded browser has to exist natively before its component is ever shown
+        this.browser = JBCefBrowser.createBuilder()
+            .setOffScreenRendering(isOSREnabled)
+            .setCreateImmediately(continueState.preloadWebview)
+            .build().apply {
             // To avoid using System.setProperty to affect other plugins,
             // we should configure JS_QUERY_POOL_SIZE after JBCefClient is instantiated,
             // and eliminate the 'Uncaught TypeError: window.cefQuery_xxx is not a function' error
@@ -45,10 +59,17 @@ class ContinueBrowser(val project: Project, url: String) {
         registerAppSchemeHandler()
         Disposer.register(ContinuePluginDisposable.getInstance(project), browser)
 
+        messageBus = WebviewMessageBus(browser)
+        Disposer.register(browser, messageBus)
+
         // Listen for events sent from browser
         val myJSQueryOpenInBrowser = JBCefJSQuery.create((browser as JBCefBrowserBase?)!!)
 
         myJSQueryOpenInBrowser.addHandler { msg: String? ->
+            if (msg != null && forwardToCore(msg)) {
+                return@addHandler null
+            }
+
             val parser = JsonParser()
             val json: JsonObject = parser.parse(msg).asJsonObject
             val messageType = json.get("messageType").asString
@@ -83,6 +104,22 @@ class ContinueBrowser(val project: Project, url: String) {
 
         // Listen for the page load event
         browser.jbCefClient.addLoadHandler(object : CefLoadHandlerAdapter() {
+            override fun onLoadStart(
+                browser: CefBrowser?,
+                frame: CefFrame?,
+                transitionType: CefRequest.TransitionType?
+            ) {
+                if (frame?.isMain != true) {
+                    return
+                }
+
+                // Inject the bridge at document start so the GUI can post messages while it boots.
+                // Messages to the GUI are held back until the page has finished loading.
+                messageBus.setPageReady(false)
+                executeJavaScript(browser, myJSQueryOpenInBrowser)
+                messageBus.installShim(browser)
+            }
+
             override fun onLoadingStateChange(
                 browser: CefBrowser?,
                 isLoading: Boolean,
@@ -91,7 +128,12 @@ class ContinueBrowser(val project: Project, url: String) {
             ) {
                 if (!isLoading) {
                     // The page has finished loading
+                    if (loadStartedAt > 0) {
+                        println("Webview loaded in ${System.currentTimeMillis() - loadStartedAt}ms")
+                        loadStartedAt = 0
+                    }
                     executeJavaScript(browser, myJSQueryOpenInBrowser)
+                    messageBus.setPageReady(true)
                 }
             }
         }, browser.cefBrowser)
@@ -100,6 +142,7 @@ class ContinueBrowser(val project: Project, url: String) {
         // otherwise some messages will be lost, which are some configurations when the page is loaded.
         // Moreover, we should add LoadHandler before loading the url.
         continuePluginService.onProtocolClientInitialized {
+            loadStartedAt = System.currentTimeMillis()
             browser.loadURL(url)
         }
 
@@ -115,31 +158,40 @@ class ContinueBrowser(val project: Project, url: String) {
         browser?.executeJavaScript(script, browser.url, 0)
     }
 
+    /**
+     * Relays a pass-through message to the core as is, responses are posted back to the webview unparsed
+     */
+    private fun forwardToCore(msg: String): Boolean {
+        val header = MessageHeader.parse(msg)
+        val messageType = header.messageType ?: return false
+        val messageId = header.messageId ?: return false
+        if (!PASS_THROUGH_TO_CORE.contains(messageType)) {
+            return false
+        }
+
+        continuePluginService.coreMessenger?.requestRaw(msg, messageType, messageId) { response ->
+            messageBus.post(response)
+        }
+        return true
+    }
+
     fun sendToWebview(
         messageType: String,
         data: Any?,
         messageId: String = uuid()
     ) {
-        val jsonData = Gson().toJson(
+        val jsonData = gson.toJson(
             mapOf(
                 "messageId" to messageId,
                 "messageType" to messageType,
                 "data" to data
             )
         )
-        val jsCode = buildJavaScript(jsonData)
-
-        try {
-            this.browser.executeJavaScriptAsync(jsCode).onError {
-                println("Failed to execute jsCode error: ${it.message}")
-            }
-        } catch (error: IllegalStateException) {
-            println("Webview not initialized yet $error")
-        }
+        messageBus.post(jsonData)
     }
 
-    private fun buildJavaScript(jsonData: String): String {
-        return """window.postMessage($jsonData, "*");"""
+    companion object {
+        private val gson = Gson()
     }
 
 }
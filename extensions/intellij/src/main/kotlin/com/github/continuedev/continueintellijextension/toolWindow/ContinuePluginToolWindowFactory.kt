@@ -4,6 +4,7 @@ import com.github.continuedev.continueintellijextension.services.ContinuePluginS
 import com.intellij.openapi.actionSystem.ActionManager
 import com.intellij.openapi.actionSystem.AnAction
 import com.intellij.openapi.components.ServiceManager
+import com.intellij.openapi.components.service
 import com.intellij.openapi.project.DumbAware
 import com.intellij.openapi.project.Project
 import com.intellij.openapi.wm.ToolWindow
@@ -15,7 +16,9 @@ const val JS_QUERY_POOL_SIZE = "200"
 
 class ContinuePluginToolWindowFactory : ToolWindowFactory, DumbAware {
   override fun createToolWindowContent(project: Project, toolWindow: ToolWindow) {
-    val continueToolWindow = ContinuePluginWindow(project)
+    // The window may already exist if the webview was preloaded at startup
+    val continueToolWindow =
+        project.service<ContinuePluginService>().continuePluginWindow ?: ContinuePluginWindow(project)
     val content =
         ContentFactory.getInstance().createContent(continueToolWindow.content, null, false)
     toolWindow.contentManager.addContent(content)
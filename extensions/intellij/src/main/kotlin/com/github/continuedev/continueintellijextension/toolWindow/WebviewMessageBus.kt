@@ -0,0 +1,193 @@
+package com.github.continuedev.continueintellijextension.toolWindow
+
+import com.github.continuedev.continueintellijextension.utils.uuid
+import com.intellij.openapi.Disposable
+import com.intellij.openapi.util.Disposer
+import com.intellij.ui.jcef.JBCefBrowser
+import com.intellij.ui.jcef.JBCefBrowserBase
+import com.intellij.ui.jcef.JBCefJSQuery
+import com.intellij.util.concurrency.AppExecutorUtil
+import org.cef.browser.CefBrowser
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Delivers messages to the webview in batches.
+ *
+ * Each `executeJavaScript` call is a round-trip over the JCEF IPC, so instead of one call per message the
+ * serialized messages are queued and flushed as a single JSON array once per frame, or right away when the
+ * batch grows past [MAX_BATCH_CHARS]. The array is unpacked by a small shim that posts each message to the
+ * window in order. Payloads larger than [LARGE_PAYLOAD_CHARS] are not inlined into the script, the shim
+ * pulls them as a plain string over a [JBCefJSQuery] and parses them with `JSON.parse`.
+ *
+ * Until the page has loaded messages are only buffered, then replayed in order.
+ */
+class WebviewMessageBus(private val browser: JBCefBrowser) : Disposable {
+    private val pendingMessages = ConcurrentLinkedQueue<String>()
+    private val pendingChars = AtomicInteger(0)
+    private val isFlushScheduled = AtomicBoolean(false)
+    private val flushLock = Any()
+
+    private val largePayloads = ConcurrentHashMap<String, String>()
+    private val pullPayloadQuery = JBCefJSQuery.create(browser as JBCefBrowserBase)
+
+    @Volatile
+    private var isShimInstalled = false
+
+    @Volatile
+    private var isPageReady = false
+
+    init {
+        Disposer.register(this, pullPayloadQuery)
+
+        pullPayloadQuery.addHandler { payloadId: String? ->
+            val payload = payloadId?.let { largePayloads.remove(it) }
+            if (payload != null) {
+                JBCefJSQuery.Response(payload)
+            } else {
+                JBCefJSQuery.Response(null, 404, "Payload $payloadId not found")
+            }
+        }
+    }
+
+    /**
+     * Queues a serialized message for the webview
+     */
+    fun post(json: String) {
+        val message = if (json.length > LARGE_PAYLOAD_CHARS && isShimInstalled) {
+            val payloadId = uuid()
+            largePayloads[payloadId] = json
+            """$PAYLOAD_PREFIX"$payloadId"}"""
+        } else {
+            json
+        }
+
+        pendingMessages.add(message)
+        val bufferedChars = pendingChars.addAndGet(message.length)
+        if (!isPageReady) {
+            dropOverflow()
+        } else if (bufferedChars >= MAX_BATCH_CHARS) {
+            flush()
+        } else {
+            scheduleFlush()
+        }
+    }
+
+    fun setPageReady(ready: Boolean) {
+        isPageReady = ready
+        if (ready) {
+            flush()
+        }
+    }
+
+    /**
+     * Installs the shim that unpacks batches, has to run again whenever a page is loaded
+     */
+    fun installShim(cefBrowser: CefBrowser?) {
+        val script = """(function() {
+                let queue = Promise.resolve();
+                const pull = (payloadId) => new Promise((resolve, reject) => {
+                    ${pullPayloadQuery.inject("payloadId", "resolve", "reject")}
+                });
+                window.__continueDispatch = function(messages) {
+                    queue = queue.then(async () => {
+                        for (const message of messages) {
+                            try {
+                                if (message && message.$PAYLOAD_ID_KEY) {
+                                    window.postMessage(JSON.parse(await pull(message.$PAYLOAD_ID_KEY)), "*");
+                                } else {
+                                    window.postMessage(message, "*");
+                                }
+                            } catch (error) {
+                                console.error("Failed to dispatch message from IDE", error);
+                            }
+                        }
+                    });
+                };
+            })();""".trimIndent()
+
+        cefBrowser?.executeJavaScript(script, cefBrowser.url, 0)
+        isShimInstalled = true
+    }
+
+    private fun scheduleFlush() {
+        if (!isFlushScheduled.compareAndSet(false, true)) {
+            return
+        }
+
+        AppExecutorUtil.getAppScheduledExecutorService().schedule({
+            isFlushScheduled.set(false)
+            flush()
+        }, FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS)
+    }
+
+    /**
+     * Drops the oldest buffered messages if the page doesn't become ready in time
+     */
+    private fun dropOverflow() {
+        var dropped = 0
+        while (pendingChars.get() > MAX_BUFFERED_CHARS) {
+            val message = pendingMessages.poll() ?: break
+            pendingChars.addAndGet(-message.length)
+            dropped++
+        }
+
+        if (dropped > 0) {
+            println("Webview not ready, dropped $dropped buffered messages")
+        }
+    }
+
+    private fun flush() {
+        // Batches have to reach the browser in the order they were drained
+        synchronized(flushLock) {
+            if (!isPageReady || pendingMessages.isEmpty()) {
+                return
+            }
+
+            val batch = StringBuilder("[")
+            while (true) {
+                val message = pendingMessages.poll() ?: break
+                pendingChars.addAndGet(-message.length)
+                if (batch.length > 1) {
+                    batch.append(',')
+                }
+                batch.append(message)
+            }
+            batch.append(']')
+
+            val jsCode = """(window.__continueDispatch || function(messages) {
+                messages.forEach(function(message) { window.postMessage(message, "*"); });
+            })($batch);"""
+
+            try {
+                browser.executeJavaScriptAsync(jsCode).onError {
+                    println("Failed to execute jsCode error: ${it.message}")
+                }
+            } catch (error: IllegalStateException) {
+                println("Webview not initialized yet $error")
+            }
+        }
+    }
+
+    override fun dispose() {
+        pendingMessages.clear()
+        largePayloads.clear()
+    }
+
+    companion object {
+        private const val FLUSH_INTERVAL_MS = 16L
+
+        private const val MAX_BATCH_CHARS = 512 * 1024
+
+        private const val LARGE_PAYLOAD_CHARS = 1024 * 1024
+
+        private const val MAX_BUFFERED_CHARS = 32 * 1024 * 1024
+
+        private const val PAYLOAD_ID_KEY = "__continuePayloadId"
+
+        private const val PAYLOAD_PREFIX = """{"$PAYLOAD_ID_KEY":"""
+    }
+}
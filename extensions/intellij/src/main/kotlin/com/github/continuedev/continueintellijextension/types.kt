@@ -121,7 +121,7 @@ interface IDE {
 
     suspend fun fileExists(filepath: String): Boolean
 
-    suspend fun writeFile(path: String, contents: String)
+    suspend fun writeFile(path: String, contents: String, toolCallId: String? = null)
 
     suspend fun showVirtualFile(title: String, contents: String)
 
@@ -232,13 +232,18 @@ enum class ApplyStateStatus(val status: String) {
     CLOSED("closed");
 }
 
+data class LineRange(val startLine: Int, val endLine: Int)
+
 data class ApplyState(
     val streamId: String,
     val status: String,
     val numDiffs: Int? = null,
     val filepath: String? = null,
     val fileContent: String? = null,
-    val toolCallId: String? = null
+    val toolCallId: String? = null,
+    // Lines touched since the previous update, so the webview doesn't need the whole file on every change
+    val changedRanges: List<LineRange>? = null,
+    val contentHash: String? = null
 )
 
 data class HighlightedCodePayload(
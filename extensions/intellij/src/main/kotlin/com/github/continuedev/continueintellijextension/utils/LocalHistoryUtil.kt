@@ -43,26 +43,8 @@ object LocalHistoryUtil {
      */
     @JvmStatic
     fun findClosestRevisionBeforeTimestamp(dirHistoryModel: HistoryDialogModel, targetTimestamp: Long): Int {
-        val revisions = dirHistoryModel.revisions
-        var targetRevisionIndex = -1
-        var closestTimeDiff = Long.MAX_VALUE
-
-        // 查找离目标时间戳最近且在其之前的版本
-        for (i in revisions.indices) {
-            val revision = revisions[i]
-            val revisionTimestamp = revision.revision.timestamp
-
-            // 只考虑在目标时间戳之前的版本
-            if (revisionTimestamp <= targetTimestamp) {
-                val timeDiff = targetTimestamp - revisionTimestamp
-                if (timeDiff < closestTimeDiff) {
-                    closestTimeDiff = timeDiff
-                    targetRevisionIndex = i
-                }
-            }
-        }
-
-        return targetRevisionIndex
+        // 版本按时间从新到旧排列，第一个不晚于目标时间戳的版本即为最近的版本
+        return dirHistoryModel.revisions.indexOfFirst { it.revision.timestamp <= targetTimestamp }
     }
 
     /**
@@ -84,7 +66,8 @@ object LocalHistoryUtil {
             // 如果没有找到在时间戳之前的版本，使用最原始的版本（最后一个版本）
             revisions.last()
         } else {
-            revisions[targetRevisionIndex-1]
+            // 第 0 个是当前版本，目标时间戳之后没有修改时就停留在当前版本，避免越界
+            revisions[maxOf(targetRevisionIndex - 1, 0)]
         }
     }
 }
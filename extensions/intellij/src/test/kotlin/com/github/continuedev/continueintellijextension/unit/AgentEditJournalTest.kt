@@ -0,0 +1,48 @@
+package com.github.continuedev.continueintellijextension.unit
+
+import com.github.continuedev.continueintellijextension.checkpoint.AgentEditJournal
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.nio.file.Path
+import kotlin.test.assertEquals
+import kotlin.test.assertNull
+
+class AgentEditJournalTest {
+    @TempDir
+    lateinit var directory: Path
+
+    private var now = 1_000L
+
+    private fun journal() = AgentEditJournal(directory) { now }
+
+    @Test
+    fun shouldIndexEntriesByToolCall() {
+        val journal = journal()
+        journal.record("call-1", "/p/A.kt", "a\n", "b\n")
+        now = 2_000L
+        journal.record("call-2", "/p/A.kt", "b\n", "c\n")
+        journal.record("call-2", "/p/B.kt", null, "new\n")
+
+        val entries = journal.entriesForToolCall("call-2")
+        assertEquals(listOf("/p/A.kt", "/p/B.kt"), entries.map { it.path })
+        // Reverting the creation of B.kt deletes it instead of leaving an empty file
+        assertEquals(listOf(false, true), entries.map { it.created })
+        assertEquals(1, journal.entriesForToolCall("call-1").size)
+    }
+
+    @Test
+    fun shouldSkipEditsWithoutChanges() {
+        assertNull(journal().record("call-1", "/p/A.kt", "same\n", "same\n"))
+    }
+
+    @Test
+    fun shouldReloadAndDropExpiredEntries() {
+        journal().record("call-1", "/p/A.kt", "a\n", "b\n")
+        now += 15 * 24 * 60 * 60 * 1000L
+        journal().record("call-2", "/p/A.kt", "b\n", "c\n")
+
+        val reloaded = journal()
+        assertEquals(emptyList(), reloaded.entriesForToolCall("call-1"))
+        assertEquals(1, reloaded.entriesForToolCall("call-2").size)
+    }
+}
@@ -0,0 +1,75 @@
+package com.github.continuedev.continueintellijextension.unit
+
+import com.github.continuedev.continueintellijextension.checkpoint.CheckpointStore
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.nio.file.Files
+import java.nio.file.Path
+import kotlin.test.assertEquals
+import kotlin.test.assertNull
+
+class CheckpointStoreTest {
+    @TempDir
+    lateinit var directory: Path
+
+    private var now = 1_000L
+
+    private fun store() = CheckpointStore(directory) { now }
+
+    @Test
+    fun shouldReturnContentBeforeFirstEditAfterTimestamp() {
+        val store = store()
+        store.record("/p/A.kt", "v1", "call-1")
+        now = 2_000L
+        store.record("/p/A.kt", "v2", "call-2")
+
+        assertEquals("v1", store.readContent(store.snapshotAt("/p/A.kt", 500L)!!))
+        assertEquals("v2", store.readContent(store.snapshotAt("/p/A.kt", 1_500L)!!))
+        // Not edited since
+        assertNull(store.snapshotAt("/p/A.kt", 2_500L))
+    }
+
+    @Test
+    fun shouldRestoreMissingFilesAsAbsent() {
+        val store = store()
+        store.record("/p/New.kt", null, "call-1")
+
+        val snapshots = store.snapshotsAt(0L)
+        assertEquals(1, snapshots.size)
+        assertNull(store.readContent(snapshots[0]))
+    }
+
+    @Test
+    fun shouldStoreEqualContentOnce() {
+        val store = store()
+        store.record("/p/A.kt", "same", null)
+        store.record("/p/B.kt", "same", null)
+
+        Files.list(directory.resolve("blobs")).use { assertEquals(1, it.count()) }
+    }
+
+    @Test
+    fun shouldReloadSnapshotsAndDropExpiredOnes() {
+        store().record("/p/A.kt", "old", null)
+        now += 15 * 24 * 60 * 60 * 1000L
+        store().record("/p/B.kt", "new", null)
+
+        val reloaded = store()
+        assertEquals(listOf("/p/B.kt"), reloaded.snapshotsAt(0L).map { it.path })
+        // The dropped snapshot can't be restored anymore
+        assertEquals(1_001L, reloaded.trackingSince)
+    }
+
+    @Test
+    fun shouldDropExpiredSnapshotsWhileRecording() {
+        val store = store()
+        store.record("/p/A.kt", "old", null)
+        now += 16 * 24 * 60 * 60 * 1000L
+        store.record("/p/B.kt", "new", null)
+
+        assertEquals(listOf("/p/B.kt"), store.snapshotsAt(0L).map { it.path })
+        assertEquals(1_001L, store.trackingSince)
+        // The blob of the dropped snapshot is deleted as well
+        Files.list(directory.resolve("blobs")).use { assertEquals(1, it.count()) }
+    }
+}
@@ -0,0 +1,45 @@
+package com.github.continuedev.continueintellijextension.unit
+
+import com.github.continuedev.continueintellijextension.editor.ContextWindow
+import com.intellij.openapi.util.TextRange
+import org.junit.jupiter.api.Test
+import kotlin.test.assertEquals
+
+class ContextWindowTest {
+    private val text = (0 until 100).joinToString("\n") { "line $it" }
+
+    private fun offsetOfLine(line: Int) = text.indexOf("line $line\n")
+
+    @Test
+    fun shouldKeepWholeDocumentWhenItFits() {
+        val window = ContextWindow.getWindow(text, offsetOfLine(50), offsetOfLine(51), 10_000, emptyList())
+
+        assertEquals(TextRange(0, text.length), window)
+    }
+
+    @Test
+    fun shouldCutAtLineBoundariesWithinBudget() {
+        val start = offsetOfLine(50)
+        val end = offsetOfLine(51) - 1
+
+        val window = ContextWindow.getWindow(text, start, end, 100, emptyList())
+
+        assert(start - window.startOffset <= 50)
+        assert(window.endOffset - end <= 50)
+        assertEquals('\n', text[window.startOffset - 1])
+        assertEquals('\n', text[window.endOffset])
+    }
+
+    @Test
+    fun shouldPreferOutermostEnclosingRangeThatFits() {
+        val start = offsetOfLine(50)
+        val end = offsetOfLine(51) - 1
+        val method = TextRange(offsetOfLine(48), offsetOfLine(53) - 1)
+        val clazz = TextRange(offsetOfLine(45), offsetOfLine(56) - 1)
+        val file = TextRange(0, text.length)
+
+        val window = ContextWindow.getWindow(text, start, end, 200, listOf(method, clazz, file))
+
+        assertEquals(clazz, window)
+    }
+}
@@ -0,0 +1,116 @@
+package com.github.continuedev.continueintellijextension.unit
+
+import com.github.continuedev.continueintellijextension.`continue`.FastApplyMatcher
+import com.github.continuedev.continueintellijextension.editor.DiffLine
+import com.github.continuedev.continueintellijextension.editor.DiffLineType
+import org.junit.jupiter.api.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertNotNull
+import kotlin.test.assertNull
+
+class FastApplyMatcherTest {
+    private val document = """
+        class Greeter {
+            fun greet(name: String): String {
+                return "Hello " + name
+            }
+
+            fun bye(): String {
+                return "Bye"
+            }
+        }
+    """.trimIndent().lines()
+
+    @Test
+    fun shouldMatchReplacedMethod() {
+        val suggestion = """
+            fun greet(name: String): String {
+                val greeting = "Hello"
+                return greeting + " " + name
+            }
+        """.trimIndent()
+
+        val match = assertNotNull(FastApplyMatcher.match(document, suggestion))
+
+        assertEquals(1, match.startLine)
+        assertEquals(3, match.endLine)
+        assertEquals(
+            listOf(
+                DiffLine(DiffLineType.SAME, "    fun greet(name: String): String {"),
+                DiffLine(DiffLineType.OLD, "        return \"Hello \" + name"),
+                DiffLine(DiffLineType.NEW, "        val greeting = \"Hello\""),
+                DiffLine(DiffLineType.NEW, "        return greeting + \" \" + name"),
+                DiffLine(DiffLineType.SAME, "    }"),
+            ),
+            match.diffLines
+        )
+    }
+
+    @Test
+    fun shouldFallBackForLazyBlocks() {
+        val suggestion = """
+            fun greet(name: String): String {
+                // ... existing code ...
+            }
+        """.trimIndent()
+
+        assertNull(FastApplyMatcher.match(document, suggestion))
+    }
+
+    @Test
+    fun shouldFallBackWhenAnchorIsAmbiguous() {
+        val suggestion = """
+            }
+            fun hello() = "Hello"
+        """.trimIndent()
+
+        assertNull(FastApplyMatcher.match(document, suggestion))
+    }
+
+    @Test
+    fun shouldFallBackWhenWideSpanOmitsSibling() {
+        val siblings = """
+            class Counter {
+                fun one() {
+                    first()
+                }
+
+                fun two() {
+                    second()
+                }
+
+                fun three() {
+                    third()
+                }
+            }
+        """.trimIndent().lines()
+        val suggestion = """
+            fun one() {
+                first()
+            }
+
+            fun three() {
+                thirdChanged()
+            }
+        """.trimIndent()
+
+        // Spanning to the last closing brace would delete fun two()
+        assertNull(FastApplyMatcher.match(siblings, suggestion))
+    }
+
+    @Test
+    fun shouldFallBackWhenNewSiblingWouldReplaceExistingOne() {
+        val suggestion = """
+            fun greet(name: String): String {
+                return "Hello " + name
+            }
+
+            fun hello(): String {
+                return "Hello"
+            }
+        """.trimIndent()
+
+        // Spanning to the closing brace of bye() would swap its lines one by one for hello()
+        assertNull(FastApplyMatcher.match(document, suggestion))
+    }
+}
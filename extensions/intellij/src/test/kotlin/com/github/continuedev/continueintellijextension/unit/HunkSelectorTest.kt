@@ -0,0 +1,62 @@
+package com.github.continuedev.continueintellijextension.unit
+
+import com.github.continuedev.continueintellijextension.commit.HunkSelector
+import com.github.continuedev.continueintellijextension.commit.HunkSelector.FileChanges
+import com.github.continuedev.continueintellijextension.commit.HunkSelector.Hunk
+import com.github.continuedev.continueintellijextension.commit.HunkSelector.Kind
+import org.junit.jupiter.api.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+class HunkSelectorTest {
+    private fun hunk(added: List<String>, removed: List<String> = emptyList()): Hunk {
+        val text = "@@ -1 +1 @@\n" + removed.joinToString("") { "-$it\n" } + added.joinToString("") { "+$it\n" }
+        return Hunk(text, added, removed, 0)
+    }
+
+    @Test
+    fun shouldPreferSignatureChangesOverWhitespace() {
+        val whitespace = hunk(listOf("        return  name;"), listOf("        return name;"))
+        val signature = hunk(listOf("    public void greet(String name) {"), listOf("    public void greet() {"))
+        val files = listOf(
+            FileChanges("Formatter.java", Kind.MODIFIED, listOf(whitespace), null),
+            FileChanges("Greeter.java", Kind.MODIFIED, listOf(signature), null)
+        )
+
+        // Room for a single file only
+        val diffs = HunkSelector(1000, 1).select(files)
+
+        assertEquals(2, diffs.size)
+        assertTrue(diffs[0].startsWith("--- a/Greeter.java\n+++ b/Greeter.java\n"))
+        assertEquals("Changes omitted from the diff above:\nFormatter.java | modified +1 -1\n", diffs[1])
+    }
+
+    @Test
+    fun shouldListSkippedFilesInDiffstat() {
+        val files = listOf(
+            FileChanges("src/App.kt", Kind.NEW, listOf(hunk(listOf("fun main() {}"))), null),
+            FileChanges("yarn.lock", Kind.MODIFIED, emptyList(), "generated file")
+        )
+
+        val diffs = HunkSelector(1000, 50).select(files)
+
+        assertEquals(2, diffs.size)
+        assertTrue(diffs[0].startsWith("--- /dev/null\n+++ b/src/App.kt\n"))
+        assertEquals("Changes omitted from the diff above:\nyarn.lock | modified (generated file)\n", diffs[1])
+    }
+
+    @Test
+    fun shouldTruncateOversizedHunkInsteadOfDroppingIt() {
+        val lines = (0 until 1000).map { "val value$it = $it" }
+        val files = listOf(FileChanges("src/Values.kt", Kind.NEW, listOf(hunk(lines)), null))
+
+        // A quarter of the budget, 4000 chars, is less than the new file
+        val diffs = HunkSelector(4000, 50).select(files)
+
+        assertEquals(2, diffs.size)
+        assertTrue(diffs[0].startsWith("--- /dev/null\n+++ b/src/Values.kt\n@@ -1 +1 @@\n+val value0 = 0\n"))
+        assertTrue(diffs[0].endsWith(" more lines\n"))
+        assertTrue(diffs[0].length < 4100)
+        assertEquals("Changes omitted from the diff above:\nsrc/Values.kt | new file (1 of 1 hunks truncated)\n", diffs[1])
+    }
+}
@@ -0,0 +1,49 @@
+package com.github.continuedev.continueintellijextension.unit
+
+import com.github.continuedev.continueintellijextension.services.ManagedExecutor
+import org.junit.jupiter.api.Test
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.TimeUnit
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+
+class ManagedExecutorTest {
+    @Test
+    fun shouldRejectTasksBeyondPendingLimit() {
+        val backend = Executors.newSingleThreadExecutor()
+        val executor = ManagedExecutor("test", backend, 2)
+        val release = CountDownLatch(1)
+        val done = CountDownLatch(2)
+
+        repeat(2) {
+            executor.execute {
+                release.await()
+                done.countDown()
+            }
+        }
+        assertFailsWith<RejectedExecutionException> { executor.execute {} }
+
+        release.countDown()
+        done.await(5, TimeUnit.SECONDS)
+        backend.shutdown()
+        backend.awaitTermination(5, TimeUnit.SECONDS)
+
+        val stats = executor.getStats()
+        assertEquals(0, stats.pending)
+        assertEquals(2, stats.peakPending)
+        assertEquals(2, stats.completed)
+        assertEquals(1, stats.rejected)
+    }
+
+    @Test
+    fun shouldRejectTasksAfterShutdown() {
+        val executor = ManagedExecutor("test", Executors.newSingleThreadExecutor(), 2)
+        executor.shutdown()
+
+        assertFailsWith<RejectedExecutionException> { executor.execute {} }
+        assertEquals(0, executor.getStats().pending)
+        assertEquals(1, executor.getStats().rejected)
+    }
+}
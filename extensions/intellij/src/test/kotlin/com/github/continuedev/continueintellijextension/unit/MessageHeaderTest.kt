@@ -0,0 +1,35 @@
+package com.github.continuedev.continueintellijextension.unit
+
+import com.github.continuedev.continueintellijextension.`continue`.MessageHeader
+import org.junit.jupiter.api.Test
+import kotlin.test.assertEquals
+
+class MessageHeaderTest {
+    @Test
+    fun shouldReadHeaderWithoutPayload() {
+        val json = """{"data":{"content":{"nested":[1,2,{"done":false}]},"done":true},"messageType":"llm/streamChat","messageId":"abc"}"""
+
+        assertEquals(MessageHeader("llm/streamChat", "abc", true), MessageHeader.parse(json))
+    }
+
+    @Test
+    fun shouldDefaultDoneToFalse() {
+        val json = """{"messageType":"history/list","data":null,"messageId":"abc"}"""
+
+        assertEquals(MessageHeader("history/list", "abc", false), MessageHeader.parse(json))
+    }
+
+    @Test
+    fun shouldTolerateMissingMessageId() {
+        val json = """{"messageType":"history/list","data":{"done":false}}"""
+
+        assertEquals(MessageHeader("history/list", null, false), MessageHeader.parse(json))
+    }
+
+    @Test
+    fun shouldReadMessageIdOnly() {
+        assertEquals("abc", MessageHeader.parseMessageId("""{"messageType":"x","messageId":"abc","data":{"done":true}}"""))
+        assertEquals("abc", MessageHeader.parseMessageId("""{"data":[1,{"a":2}],"messageId":"abc"}"""))
+        assertEquals(null, MessageHeader.parseMessageId("""{"messageType":"x","data":null}"""))
+    }
+}
@@ -0,0 +1,126 @@
+package com.github.continuedev.continueintellijextension.unit
+
+import com.github.continuedev.continueintellijextension.services.RemoteConfigSync
+import com.github.continuedev.continueintellijextension.services.RemoteConfigSync.Result
+import com.sun.net.httpserver.HttpServer
+import okhttp3.OkHttpClient
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.io.File
+import java.net.InetSocketAddress
+import java.nio.file.Path
+import kotlin.test.assertEquals
+
+class RemoteConfigSyncTest {
+    @TempDir
+    lateinit var directory: Path
+
+    private lateinit var server: HttpServer
+    private lateinit var sync: RemoteConfigSync
+
+    private var body = """{"configJson":"{\"models\":[]}"}"""
+    private var eTag: String? = "\"v1\""
+    private val ifNoneMatchHeaders = mutableListOf<String?>()
+
+    private val configFile get() = File(directory.toFile(), "config.json")
+
+    @BeforeEach
+    fun setUp() {
+        server = HttpServer.create(InetSocketAddress("127.0.0.1", 0), 0)
+        server.createContext("/sync") { exchange ->
+            val ifNoneMatch = exchange.requestHeaders.getFirst("If-None-Match")
+            ifNoneMatchHeaders.add(ifNoneMatch)
+            if (eTag != null && ifNoneMatch == eTag) {
+                exchange.sendResponseHeaders(304, -1)
+            } else {
+                eTag?.let { exchange.responseHeaders.add("ETag", it) }
+                val bytes = body.toByteArray()
+                exchange.sendResponseHeaders(200, bytes.size.toLong())
+                exchange.responseBody.use { it.write(bytes) }
+            }
+            exchange.close()
+        }
+        server.start()
+
+        sync = RemoteConfigSync(
+            OkHttpClient(),
+            { configFile.path },
+            { File(directory.toFile(), "config.js").path }
+        )
+    }
+
+    @AfterEach
+    fun tearDown() {
+        server.stop(0)
+    }
+
+    private fun serverUrl() = "http://127.0.0.1:${server.address.port}/"
+
+    @Test
+    fun shouldSendETagAndSkipUnmodifiedConfig() {
+        assertEquals(Result.UPDATED, sync.sync(serverUrl(), "token"))
+        val modified = configFile.lastModified()
+
+        assertEquals(Result.NOT_MODIFIED, sync.sync(serverUrl(), "token"))
+
+        assertEquals(listOf(null, "\"v1\""), ifNoneMatchHeaders)
+        assertEquals("""{"models":[]}""", configFile.readText())
+        assertEquals(modified, configFile.lastModified())
+    }
+
+    @Test
+    fun shouldNotRewriteEqualContentWithoutETag() {
+        eTag = null
+        configFile.writeText("""{"models":[]}""")
+        configFile.setLastModified(1_000L)
+
+        assertEquals(Result.UNCHANGED, sync.sync(serverUrl(), null))
+        assertEquals(Result.NOT_MODIFIED, sync.sync(serverUrl(), null))
+        assertEquals(1_000L, configFile.lastModified())
+    }
+
+    @Test
+    fun shouldRestoreDeletedConfigWhenNotModified() {
+        assertEquals(Result.UPDATED, sync.sync(serverUrl(), null))
+        configFile.delete()
+
+        // The server answers 304, the file is written from the remembered config
+        assertEquals(Result.UPDATED, sync.sync(serverUrl(), null))
+        assertEquals(listOf(null, "\"v1\""), ifNoneMatchHeaders)
+        assertEquals("""{"models":[]}""", configFile.readText())
+    }
+
+    @Test
+    fun shouldRestoreEditedConfigForSameBody() {
+        eTag = null
+        assertEquals(Result.UPDATED, sync.sync(serverUrl(), null))
+        configFile.writeText("edited")
+
+        assertEquals(Result.UPDATED, sync.sync(serverUrl(), null))
+        assertEquals("""{"models":[]}""", configFile.readText())
+    }
+
+    @Test
+    fun shouldWriteChangedConfig() {
+        assertEquals(Result.UPDATED, sync.sync(serverUrl(), null))
+
+        body = """{"configJson":"{\"models\":[1]}"}"""
+        eTag = "\"v2\""
+
+        assertEquals(Result.UPDATED, sync.sync(serverUrl(), null))
+        assertEquals("""{"models":[1]}""", configFile.readText())
+    }
+
+    @Test
+    fun shouldFailOnServerError() {
+        server.removeContext("/sync")
+        server.createContext("/sync") { exchange ->
+            exchange.sendResponseHeaders(500, -1)
+            exchange.close()
+        }
+
+        assertEquals(Result.FAILED, sync.sync(serverUrl(), null))
+    }
+}
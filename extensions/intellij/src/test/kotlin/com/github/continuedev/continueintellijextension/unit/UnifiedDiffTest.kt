@@ -0,0 +1,55 @@
+package com.github.continuedev.continueintellijextension.unit
+
+import com.github.continuedev.continueintellijextension.checkpoint.UnifiedDiff
+import org.junit.jupiter.api.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertNull
+
+class UnifiedDiffTest {
+    private val before = (1..20).joinToString("\n") { "line $it" } + "\n"
+
+    @Test
+    fun shouldCreateHunksWithContext() {
+        val after = before.replace("line 10\n", "line ten\n")
+
+        val diff = UnifiedDiff.create(before, after)!!
+
+        assertEquals(
+            "@@ -7,7 +7,7 @@\n line 7\n line 8\n line 9\n-line 10\n+line ten\n line 11\n line 12\n line 13\n",
+            diff
+        )
+    }
+
+    @Test
+    fun shouldRoundTripEdits() {
+        val after = before.replace("line 2\n", "").replace("line 18\n", "line 18\nadded\n").removeSuffix("\n")
+
+        val diff = UnifiedDiff.create(before, after)!!
+
+        assertEquals(after, UnifiedDiff.apply(before, diff))
+        assertEquals(before, UnifiedDiff.apply(after, diff, reverse = true))
+    }
+
+    @Test
+    fun shouldRevertStepAfterUnrelatedLaterEdit() {
+        val step = before.replace("line 15\n", "changed\n")
+        val diff = UnifiedDiff.create(before, step)!!
+        // A later edit at the top moves the lines of the step down
+        val later = "header\n\n" + step
+
+        assertEquals("header\n\n" + before, UnifiedDiff.apply(later, diff, reverse = true))
+    }
+
+    @Test
+    fun shouldNotRevertWhenEditedLinesChanged() {
+        val step = before.replace("line 15\n", "changed\n")
+        val diff = UnifiedDiff.create(before, step)!!
+
+        assertNull(UnifiedDiff.apply(step.replace("changed", "changed again"), diff, reverse = true))
+    }
+
+    @Test
+    fun shouldReturnEmptyDiffForEqualContent() {
+        assertEquals("", UnifiedDiff.create(before, before))
+    }
+}
@@ -289,6 +289,11 @@ export function ModifiedFilesList() {
           if (filepath && type) {
             // 如果文件已经存在，更新类型（编辑优先于创建）
             const existingFile = seenFiles.get(filepath);
+            // 记录修改过该文件的所有工具调用，用于逐步回退
+            const toolCallIds = [
+              ...(existingFile?.toolCallIds ?? []),
+              toolCall.id,
+            ];
             if (
               !existingFile ||
               (existingFile.type === "create" && type === "edit")
@@ -297,7 +302,10 @@ export function ModifiedFilesList() {
                 filepath,
                 type,
                 toolCallId: toolCall.id,
+                toolCallIds,
               });
+            } else {
+              seenFiles.set(filepath, { ...existingFile, toolCallIds });
             }
           }
         });
@@ -367,10 +375,51 @@ export function ModifiedFilesList() {
     return parts.slice(0, -1).join("/");
   };
 
+  // 只撤销 Agent 各步骤的修改，保留用户之后的编辑；无法逐步回退时返回 false
+  const revertToolCalls = async (
+    absolutePath: string,
+    toolCallIds?: string[],
+  ): Promise<boolean> => {
+    if (!toolCallIds?.length) {
+      return false;
+    }
+    // 从最新的一步开始撤销，每一步的修改都基于上一步的结果
+    for (const toolCallId of [...toolCallIds].reverse()) {
+      const result = await ideMessenger.request("revertToolCall", {
+        toolCallId,
+        filepath: absolutePath,
+      });
+      if (result.status === "error" || result.content.length > 0) {
+        return false;
+      }
+    }
+    return true;
+  };
+
   const handleRevertFile = async (filepath: string) => {
     console.log("Agent回退修改:", filepath);
     try {
       const absolutePath = await getAbsolutePath(filepath);
+      const file = pendingConfirmFilesList.find(
+        (f) => f.filepath === filepath,
+      );
+      if (await revertToolCalls(absolutePath, file?.toolCallIds)) {
+        dispatch(setAcceptHistoryIndex(history.length - 1));
+        dispatch(
+          setPendingConfirmFilesList(
+            pendingConfirmFilesList.filter((f) => f.filepath !== filepath),
+          ),
+        );
+        await dispatch(
+          saveCurrentSession({
+            openNewSession: false,
+            generateTitle: false,
+          }),
+        );
+        return;
+      }
+
+      // 逐步回退失败（例如该文件在之后被修改过），按时间点整体回滚
       let message;
       if (acceptHistoryIndex > 0) {
         message = history[acceptHistoryIndex + 1].message;